@@ -0,0 +1,184 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.location.Location;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.machalik.bcthesis.dencesty.webapi.DateCodec;
+
+/**
+ * Compares size of Events batch written as JSON array and in compact format and checks
+ * that compact format decodes back to the same values.
+ */
+public class CompactEventBatchWriterTest extends AndroidTestCase {
+
+    private static final String TAG = "CompactEventBatchTest";
+
+    private static final int FIXES = 200;
+    private static final int ROUND_TRIP_FIXES = 60;
+    private static final int FIELDS_COUNT = 17;
+
+    public void testLocationUpdatesAreAtLeastFiveTimesSmaller() throws IOException {
+        EventBatch batch = new EventBatch(FIXES);
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < FIXES; i++) {
+            Location location = new Location("gps");
+            location.setLatitude(50.0755 + i * 0.00004);
+            location.setLongitude(14.4378 + i * 0.00003);
+            location.setAltitude(235 + (i % 7));
+            location.setSpeed(1.4f);
+            location.setBearing(45.5f + (i % 3));
+            location.setAccuracy(8f);
+            location.setTime(time + i * 5000);
+
+            Event event = new LocationUpdateEvent(getContext(), 1, 2, location, i, i * 5, 5.1, 3, 0);
+            batch.add(event.getEventId(), event.toJSONString());
+        }
+        batch.add(0, new Event(getContext(), 1, 2, Event.EVENTTYPE_LOG).toJSONString());
+
+        StringWriter json = new StringWriter();
+        batch.writeTo(json);
+        StringWriter compact = new StringWriter();
+        batch.writeCompactTo(compact);
+
+        Log.i(TAG, "JSON array " + json.toString().length() + " B, compact " + compact.toString().length() + " B");
+        assertTrue(compact.toString().length() * 5 <= json.toString().length());
+        assertTrue(compact.toString().contains("\"type\":\"Log\""));
+    }
+
+    public void testDecodesToTheSameValues() throws IOException, JSONException, ParseException {
+        // Walkers and providers alternate, so groups switch between neighbouring fixes
+        List<String> bodies = new ArrayList<>();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < ROUND_TRIP_FIXES; i++) {
+            Location location = new Location(i % 3 == 0 ? "network" : "gps");
+            location.setLatitude(-33.8688 - i * 0.00004);
+            location.setLongitude(-151.2093 + (i % 4) * 0.00003);
+            if (i % 5 != 0) {
+                location.setAltitude(235 - (i % 7) * 1.5);
+            }
+            location.setSpeed(i % 2 == 0 ? 1.4f : 0.35f);
+            location.setBearing(359.5f - (i % 3) * 120);
+            location.setAccuracy(i % 4 == 0 ? 48f : 8.5f);
+            location.setTime(time - i * 5000);
+
+            Event event = new LocationUpdateEvent(getContext(), 1 + i % 2, 2, location, ROUND_TRIP_FIXES - i,
+                    i % 6 * 1000, 5.1 - (i % 4) * 1.25, i % 8, i % 3);
+            bodies.add(event.toJSONString());
+        }
+
+        // Out of order, so Event IDs, times and counters also decrease between fixes
+        EventBatch batch = new EventBatch(ROUND_TRIP_FIXES);
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i < ROUND_TRIP_FIXES; i++) {
+            String body = bodies.get((i * 7) % ROUND_TRIP_FIXES);
+            JSONObject event = new JSONObject(body);
+            batch.add(event.getInt("eventId"), body);
+            added.add(body);
+        }
+
+        StringWriter compact = new StringWriter();
+        batch.writeCompactTo(compact);
+        JSONObject root = new JSONObject(compact.toString());
+        assertEquals("compact-1", root.getString("format"));
+        assertEquals(0, root.getJSONArray("events").length());
+
+        Map<String, List<long[]>> expected = new HashMap<>();
+        for (String body : added) {
+            JSONObject event = new JSONObject(body);
+            String key = groupKey(event.getInt("walkerId"), event.getInt("raceId"), event.getJSONObject("data").getString("provider"));
+            if (!expected.containsKey(key)) {
+                expected.put(key, new ArrayList<long[]>());
+            }
+            expected.get(key).add(expectedValues(event));
+        }
+
+        JSONArray locations = root.getJSONArray("locations");
+        assertEquals(4, locations.length());
+        int decodedCount = 0;
+        for (int i = 0; i < locations.length(); i++) {
+            JSONObject group = locations.getJSONObject(i);
+            List<long[]> groupExpected = expected.get(groupKey(group.getInt("walkerId"), group.getInt("raceId"), group.getString("provider")));
+            assertNotNull(groupExpected);
+            assertEquals(groupExpected.size(), group.getInt("count"));
+
+            long[] values = decode(group.getString("fixes"), group.getInt("count"));
+            for (int fix = 0; fix < groupExpected.size(); fix++) {
+                for (int field = 0; field < FIELDS_COUNT; field++) {
+                    assertEquals("fix " + fix + " field " + field, groupExpected.get(fix)[field], values[fix * FIELDS_COUNT + field]);
+                }
+            }
+            decodedCount += groupExpected.size();
+        }
+        assertEquals(ROUND_TRIP_FIXES, decodedCount);
+    }
+
+    private static String groupKey(int walkerId, int raceId, String provider) {
+        return walkerId + "/" + raceId + "/" + provider;
+    }
+
+    /**
+     * Returns fields of LocationUpdate Event JSON in compact format order and units.
+     */
+    private static long[] expectedValues(JSONObject event) throws JSONException, ParseException {
+        JSONObject data = event.getJSONObject("data");
+        return new long[] {
+                event.getLong("eventId"),
+                DateCodec.parseUpload(event.getString("time")) / 1000,
+                event.getLong("batL"),
+                event.getLong("batS"),
+                data.getLong("counter"),
+                DateCodec.parseUpload(data.getString("timestamp")) / 1000,
+                Math.round(data.getDouble("latitude") * 1e6),
+                Math.round(data.getDouble("longitude") * 1e6),
+                Math.round(data.getDouble("altitude") * 10),
+                Math.round(data.getDouble("course") * 10),
+                Math.round(data.getDouble("speed") * 100),
+                Math.round(data.getDouble("horAcc") * 10),
+                Math.round(data.getDouble("verAcc") * 10),
+                data.getLong("distance"),
+                Math.round(data.getDouble("avgSpeed") * 100),
+                data.getLong("lastCheckpoint"),
+                data.getLong("offRouteCounter"),
+        };
+    }
+
+    /**
+     * Decodes fixes of one group, the way a server does it.
+     * @return values of all fixes, {@link #FIELDS_COUNT} per fix
+     */
+    private static long[] decode(String fixes, int count) {
+        long[] values = new long[count * FIELDS_COUNT];
+        long[] previous = new long[FIELDS_COUNT];
+        int index = 0;
+        for (int i = 0; i < values.length; i++) {
+            long v = 0;
+            int shift = 0;
+            int c;
+            do {
+                c = fixes.charAt(index++) - 63;
+                v |= (long) (c & 0x1f) << shift;
+                shift += 5;
+            } while (c >= 0x20);
+            long delta = (v >>> 1) ^ -(v & 1);
+
+            int field = i % FIELDS_COUNT;
+            previous[field] += delta;
+            values[i] = previous[field];
+        }
+        assertEquals(fixes.length(), index);
+        return values;
+    }
+}
@@ -0,0 +1,156 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.location.Location;
+import android.os.Debug;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import cz.machalik.bcthesis.dencesty.webapi.StandInServer;
+import cz.machalik.bcthesis.dencesty.webapi.StandInServerTestCase;
+
+/**
+ * Compares allocations of uploading a chunk of journaled Events through a real connection
+ * to {@link StandInServer}: JSON tree (JSONObject per Event in JSONArray, written as one String
+ * to a buffered request body) as it was done before {@link EventBatch}, {@link EventBatch}
+ * written to a buffered request body, and {@link EventBatch} streamed in chunked mode
+ * as it is done now. Results are logged.
+ */
+public class EventBatchAllocationBenchmark extends StandInServerTestCase {
+
+    private static final String TAG = "EventBatchAllocBench";
+
+    private static final int FIXES = 200;
+    private static final int WARMUP = 2;
+    private static final int ITERATIONS = 10;
+
+    public void testStreamedBatchAllocatesLessThanJSONTree() throws IOException, JSONException {
+        String[] bodies = createBodies();
+        for (int i = 0; i < WARMUP; i++) {
+            uploadJSONTree(bodies);
+            uploadBatch(bodies, false);
+            uploadBatch(bodies, true);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; i++) {
+                uploadJSONTree(bodies);
+            }
+            int treeCount = Debug.getThreadAllocCount() / ITERATIONS;
+            int treeSize = Debug.getThreadAllocSize() / ITERATIONS;
+
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; i++) {
+                uploadBatch(bodies, false);
+            }
+            int bufferedCount = Debug.getThreadAllocCount() / ITERATIONS;
+            int bufferedSize = Debug.getThreadAllocSize() / ITERATIONS;
+
+            Debug.resetThreadAllocCount();
+            for (int i = 0; i < ITERATIONS; i++) {
+                uploadBatch(bodies, true);
+            }
+            int streamedCount = Debug.getThreadAllocCount() / ITERATIONS;
+            int streamedSize = Debug.getThreadAllocSize() / ITERATIONS;
+
+            Log.i(TAG, "Upload of " + FIXES + " fixes: JSON tree " + treeCount + " allocations, " + treeSize + " B; "
+                    + "EventBatch buffered " + bufferedCount + " allocations, " + bufferedSize + " B; "
+                    + "EventBatch streamed " + streamedCount + " allocations, " + streamedSize + " B");
+            assertTrue(streamedCount < treeCount);
+            assertTrue(streamedSize < bufferedSize);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * Uploads chunk the way it was done before {@link EventBatch}.
+     */
+    private void uploadJSONTree(String[] bodies) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        for (String body : bodies) {
+            array.put(new JSONObject(body));
+        }
+
+        HttpURLConnection urlConnection = open(false);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), "UTF-8"));
+        writer.write(array.toString());
+        writer.close();
+        readResponse(urlConnection);
+    }
+
+    /**
+     * Uploads chunk as {@link EventBatch}.
+     * @param chunked true to stream request body in chunked mode, as WebAPI does
+     */
+    private void uploadBatch(String[] bodies, boolean chunked) throws IOException {
+        EventBatch batch = new EventBatch(bodies.length);
+        for (int i = 0; i < bodies.length; i++) {
+            batch.add(i + 1, bodies[i]);
+        }
+
+        HttpURLConnection urlConnection = open(chunked);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), "UTF-8"));
+        batch.writeTo(writer);
+        writer.close();
+        readResponse(urlConnection);
+    }
+
+    /**
+     * Opens Events upload connection with the same settings as WebAPI requests.
+     */
+    private HttpURLConnection open(boolean chunked) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(server.getUrl() + "/api/push_events.json").openConnection();
+        urlConnection.setDoOutput(true);
+        urlConnection.setRequestMethod("POST");
+        urlConnection.setUseCaches(false);
+        urlConnection.setRequestProperty("Content-Type", "application/json");
+        if (chunked) {
+            urlConnection.setChunkedStreamingMode(0);
+        }
+        return urlConnection;
+    }
+
+    private static void readResponse(HttpURLConnection urlConnection) throws IOException {
+        assertEquals(200, urlConnection.getResponseCode());
+        InputStream in = urlConnection.getInputStream();
+        byte[] buffer = new byte[1024];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        in.close();
+    }
+
+    /**
+     * Returns Events serialized as they are stored in journal.
+     */
+    private String[] createBodies() {
+        String[] bodies = new String[FIXES];
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < FIXES; i++) {
+            Location location = new Location("gps");
+            location.setLatitude(50.0755 + i * 0.00004);
+            location.setLongitude(14.4378 + i * 0.00003);
+            location.setAltitude(235 + (i % 7));
+            location.setSpeed(1.4f);
+            location.setBearing(45.5f + (i % 3));
+            location.setAccuracy(8f);
+            location.setTime(time + i * 5000);
+
+            bodies[i] = new LocationUpdateEvent(getContext(), 1, 2, location, i, i * 5, 5.1, 3, 0).toJSONString();
+        }
+        return bodies;
+    }
+}
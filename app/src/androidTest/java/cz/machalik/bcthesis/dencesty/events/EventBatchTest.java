@@ -0,0 +1,30 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Checks that {@link EventBatch} counts size of request body in bytes of UTF-8.
+ */
+public class EventBatchTest extends AndroidTestCase {
+
+    public void testByteCountIsSizeInUTF8() throws IOException {
+        EventBatch batch = new EventBatch(4);
+        batch.add(1, "{\"type\":\"Log\",\"data\":{\"message\":\"plain\"}}");
+        batch.add(2, "{\"type\":\"Log\",\"data\":{\"message\":\"Lukáš Machalík\"}}");
+        batch.add(3, "{\"type\":\"Log\",\"data\":{\"message\":\"€ 日本 😀\"}}");
+
+        StringWriter writer = new StringWriter();
+        batch.writeTo(writer);
+        assertEquals(writer.toString().getBytes("UTF-8").length, batch.getByteCount());
+    }
+
+    public void testUTF8Length() throws IOException {
+        String[] texts = {"", "abc", "Lukáš", "€", "😀", "aé中😀z"};
+        for (String text : texts) {
+            assertEquals(text, text.getBytes("UTF-8").length, EventBatch.utf8Length(text));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+
+/**
+ * Compares cost of obtaining battery state for {@link Event} construction: sticky broadcast
+ * query (IPC to the system) against {@link BatteryMonitor} snapshot. Results are logged.
+ */
+public class EventConstructionBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "EventConstructionBench";
+
+    private static final int WARMUP = 100;
+    private static final int ITERATIONS = 2000;
+
+    public void testBatteryStateQueryVersusSnapshot() {
+        for (int i = 0; i < WARMUP; i++) {
+            queryBatteryState();
+            BatteryMonitor.get(getContext()).getSnapshot();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            queryBatteryState();
+        }
+        long queryNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            BatteryMonitor.get(getContext()).getSnapshot();
+        }
+        long snapshotNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "Battery state: registerReceiver " + queryNanos + " ns/op, snapshot " + snapshotNanos + " ns/op");
+        assertTrue(snapshotNanos < queryNanos);
+    }
+
+    public void testEventConstruction() {
+        for (int i = 0; i < WARMUP; i++) {
+            new Event(getContext(), 0, Event.EVENTTYPE_LOG);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            new Event(getContext(), 0, Event.EVENTTYPE_LOG);
+        }
+        long eventNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "Event construction: " + eventNanos + " ns/op");
+    }
+
+    /**
+     * Battery state query as it was done by Event constructor before BatteryMonitor.
+     */
+    private int queryBatteryState() {
+        Intent batteryIntent = getContext().getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        int status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+        int plugged = batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+        return WebAPI.convertBatteryStatus(status, plugged);
+    }
+}
@@ -0,0 +1,247 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Checks {@link EventIdIndex} against wrap-around of its ring and hash map, removals inside
+ * colliding entries and both ways of range removal.
+ */
+public class EventIdIndexTest extends AndroidTestCase {
+
+    /**
+     * Hash map size of index created for 16 Event IDs, see {@link EventIdIndex}.
+     */
+    private static final int BUCKETS = 32;
+
+    public void testRingWrapsAround() {
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id = 1; id <= 16; id++) {
+            assertTrue(index.add(id));
+        }
+        for (int id = 1; id <= 8; id++) {
+            assertTrue(index.remove(id));
+        }
+        // Ring is full from its middle, these go to its beginning
+        for (int id = 17; id <= 24; id++) {
+            assertTrue(index.add(id));
+        }
+
+        assertEquals(16, index.size());
+        assertPresent(index, 9, 24);
+        assertAbsent(index, 1, 8);
+
+        // Head follows removals across the end of ring
+        for (int id = 9; id <= 20; id++) {
+            assertTrue(index.remove(id));
+        }
+        assertEquals(4, index.size());
+        assertPresent(index, 21, 24);
+        for (int id = 25; id <= 36; id++) {
+            assertTrue(index.add(id));
+        }
+        assertEquals(16, index.size());
+        assertPresent(index, 21, 36);
+    }
+
+    public void testProbeSequenceWrapsAround() {
+        // Event IDs with the last bucket probe to the beginning of hash map
+        List<Integer> last = idsInBucket(BUCKETS - 1, 4);
+        List<Integer> first = idsInBucket(0, 2);
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id : last) {
+            assertTrue(index.add(id));
+        }
+        for (int id : first) {
+            assertTrue(index.add(id));
+        }
+
+        assertTrue(index.remove(last.get(0)));
+        assertFalse(index.contains(last.get(0)));
+        for (int id : last.subList(1, last.size())) {
+            assertTrue(index.contains(id));
+        }
+        for (int id : first) {
+            assertTrue(index.contains(id));
+        }
+
+        assertTrue(index.remove(first.get(0)));
+        assertTrue(index.remove(last.get(2)));
+        assertTrue(index.contains(last.get(1)));
+        assertTrue(index.contains(last.get(3)));
+        assertTrue(index.contains(first.get(1)));
+        assertEquals(3, index.size());
+    }
+
+    public void testRemoveInsideProbeCluster() {
+        // Cluster of five colliding Event IDs followed by Event IDs of the next buckets
+        List<Integer> cluster = idsInBucket(5, 5);
+        List<Integer> next = idsInBucket(6, 2);
+        next.addAll(idsInBucket(7, 2));
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id : cluster) {
+            assertTrue(index.add(id));
+        }
+        for (int id : next) {
+            assertTrue(index.add(id));
+        }
+
+        assertTrue(index.remove(cluster.get(1)));
+        assertTrue(index.remove(cluster.get(3)));
+        assertFalse(index.contains(cluster.get(1)));
+        assertFalse(index.contains(cluster.get(3)));
+        assertTrue(index.contains(cluster.get(0)));
+        assertTrue(index.contains(cluster.get(2)));
+        assertTrue(index.contains(cluster.get(4)));
+        for (int id : next) {
+            assertTrue(index.contains(id));
+        }
+        assertEquals(7, index.size());
+
+        assertFalse(index.remove(cluster.get(1)));
+        assertEquals(7, index.size());
+    }
+
+    public void testReaddRemovedIds() {
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id = 1; id <= 100; id++) {
+            assertTrue(index.add(id));
+        }
+        assertFalse(index.add(50));
+        for (int id = 2; id <= 100; id += 2) {
+            assertTrue(index.remove(id));
+        }
+        for (int id = 2; id <= 100; id += 2) {
+            assertTrue(index.add(id));
+        }
+        assertEquals(100, index.size());
+        assertPresent(index, 1, 100);
+
+        assertEquals(100, index.removeRange(1, 100));
+        assertEquals(0, index.size());
+        for (int id = 1; id <= 100; id++) {
+            assertTrue(index.add(id));
+        }
+        assertEquals(100, index.size());
+        assertPresent(index, 1, 100);
+    }
+
+    public void testRemoveRangeNarrowerThanIndex() {
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id = 1; id <= 1000; id++) {
+            index.add(id);
+        }
+
+        // Range is shorter than index size, Event IDs of range are removed one by one
+        assertEquals(100, index.removeRange(100, 199));
+        assertEquals(900, index.size());
+        assertPresent(index, 1, 99);
+        assertAbsent(index, 100, 199);
+        assertPresent(index, 200, 1000);
+
+        assertEquals(0, index.removeRange(100, 199));
+        assertEquals(0, index.removeRange(300, 299));
+    }
+
+    public void testRemoveRangeWiderThanIndex() {
+        int[] ids = {5, 999, 1000, 4000, 123456, 200000, 200001};
+        EventIdIndex index = new EventIdIndex(16);
+        for (int id : ids) {
+            index.add(id);
+        }
+
+        // Range is longer than index size, present Event IDs are walked instead
+        assertEquals(4, index.removeRange(1000, 200000));
+        assertEquals(3, index.size());
+        assertTrue(index.contains(5));
+        assertTrue(index.contains(999));
+        assertTrue(index.contains(200001));
+        assertFalse(index.contains(1000));
+        assertFalse(index.contains(123456));
+        assertFalse(index.contains(200000));
+
+        assertTrue(index.add(1000));
+        assertTrue(index.contains(1000));
+    }
+
+    public void testRemoveFullRange() {
+        EventIdIndex index = new EventIdIndex(16);
+        index.add(0);
+        index.add(1);
+        index.add(77);
+        index.add(Integer.MAX_VALUE - 2);
+        index.add(Integer.MAX_VALUE - 1);
+        index.add(Integer.MAX_VALUE);
+
+        // Range at the end of int range is removed one by one, it must not overflow
+        assertEquals(3, index.removeRange(Integer.MAX_VALUE - 2, Integer.MAX_VALUE));
+        assertEquals(3, index.size());
+
+        index.add(Integer.MAX_VALUE);
+        assertEquals(3, index.removeRange(1, Integer.MAX_VALUE));
+        assertEquals(1, index.size());
+        assertTrue(index.contains(0));
+        assertFalse(index.contains(Integer.MAX_VALUE));
+    }
+
+    public void testMatchesReferenceSet() {
+        // Small Event ID range, so there are many collisions, removals and re-adds
+        Random random = new Random(42);
+        EventIdIndex index = new EventIdIndex(16);
+        Set<Integer> reference = new LinkedHashSet<>();
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(300);
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                assertEquals(reference.add(id), index.add(id));
+            } else if (operation < 9) {
+                assertEquals(reference.remove(id), index.remove(id));
+            } else {
+                int to = id + random.nextInt(i % 2 == 0 ? 10 : 400);
+                int removed = 0;
+                for (int j = id; j <= to; j++) {
+                    if (reference.remove(j)) {
+                        removed++;
+                    }
+                }
+                assertEquals(removed, index.removeRange(id, to));
+            }
+            assertEquals(reference.size(), index.size());
+        }
+        for (int id = 0; id < 300; id++) {
+            assertEquals(reference.contains(id), index.contains(id));
+        }
+    }
+
+    /**
+     * Returns Event IDs with given ideal bucket in index created for 16 Event IDs.
+     * Hash function is the same as in {@link EventIdIndex}.
+     */
+    private static List<Integer> idsInBucket(int bucket, int count) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id = 1; ids.size() < count; id++) {
+            int h = id * 0x9E3779B9;
+            if (((h ^ (h >>> 16)) & (BUCKETS - 1)) == bucket) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static void assertPresent(EventIdIndex index, int from, int to) {
+        for (int id = from; id <= to; id++) {
+            assertTrue("Missing " + id, index.contains(id));
+        }
+    }
+
+    private static void assertAbsent(EventIdIndex index, int from, int to) {
+        for (int id = from; id <= to; id++) {
+            assertFalse("Present " + id, index.contains(id));
+        }
+    }
+}
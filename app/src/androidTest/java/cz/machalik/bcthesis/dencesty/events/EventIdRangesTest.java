@@ -0,0 +1,67 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Checks {@link EventIdRanges} built from Event IDs and read from upload response.
+ */
+public class EventIdRangesTest extends AndroidTestCase {
+
+    public void testFromUnsortedIds() {
+        EventIdRanges ranges = EventIdRanges.fromIds(new int[] {9, 3, 1, 8, 2, 20, 7});
+        assertEquals("[1-3, 7-9, 20]", ranges.toString());
+        assertEquals(7, ranges.getIdsCount());
+    }
+
+    public void testFromDuplicateIds() {
+        EventIdRanges ranges = EventIdRanges.fromIds(new int[] {5, 5, 6, 6, 6, 10, 10});
+        assertEquals("[5-6, 10]", ranges.toString());
+        assertEquals(3, ranges.getIdsCount());
+    }
+
+    public void testFromAdjacentIds() {
+        EventIdRanges ranges = EventIdRanges.fromIds(new int[] {4, 5, 6, 7, 8});
+        assertEquals(1, ranges.size());
+        assertEquals(4, ranges.getFrom(0));
+        assertEquals(8, ranges.getTo(0));
+    }
+
+    public void testFromIdsAtTheEndOfIntRange() {
+        EventIdRanges ranges = EventIdRanges.fromIds(new int[] {Integer.MAX_VALUE, 0, Integer.MAX_VALUE, Integer.MAX_VALUE - 1});
+        assertEquals(2, ranges.size());
+        assertEquals(Integer.MAX_VALUE - 1, ranges.getFrom(1));
+        assertEquals(Integer.MAX_VALUE, ranges.getTo(1));
+        assertEquals(3, ranges.getIdsCount());
+    }
+
+    public void testFromNoIds() {
+        assertEquals(0, EventIdRanges.fromIds(new int[0]).size());
+    }
+
+    public void testParseRanges() throws JSONException {
+        EventIdRanges ranges = EventUploaderService.parseSavedEventIds(
+                new JSONObject("{\"savedEventRanges\":[[1,5],[6,6],[10,12]]}"));
+        // Adjacent ranges are kept as sent, removal handles each of them
+        assertEquals("[1-5, 6, 10-12]", ranges.toString());
+        assertEquals(9, ranges.getIdsCount());
+    }
+
+    public void testParseSkipsMalformedRanges() throws JSONException {
+        EventIdRanges ranges = EventUploaderService.parseSavedEventIds(new JSONObject(
+                "{\"savedEventRanges\":[[1,2],[9,3],[7],[],\"x\",[4,\"y\"],[-5,-1],[1,2,3],[20,21]]}"));
+        assertEquals("[1-2, 20-21]", ranges.toString());
+    }
+
+    public void testParseIds() throws JSONException {
+        EventIdRanges ranges = EventUploaderService.parseSavedEventIds(
+                new JSONObject("{\"savedEventIds\":[7,3,4,4,\"x\",-1,5,null,10]}"));
+        assertEquals("[3-5, 7, 10]", ranges.toString());
+    }
+
+    public void testParseWrongResponse() throws JSONException {
+        assertNull(EventUploaderService.parseSavedEventIds(new JSONObject("{\"success\":false}")));
+    }
+}
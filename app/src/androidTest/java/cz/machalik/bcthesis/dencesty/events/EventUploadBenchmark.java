@@ -0,0 +1,107 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.location.Location;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import cz.machalik.bcthesis.dencesty.webapi.ServerFixtures;
+import cz.machalik.bcthesis.dencesty.webapi.StandInServer;
+import cz.machalik.bcthesis.dencesty.webapi.StandInServerTestCase;
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+
+/**
+ * Measures Events upload end to end against {@link StandInServer} with emulated latency,
+ * bandwidth and failures: single upload requests and the whole {@link EventUploaderService}.
+ * Results are logged.
+ */
+public class EventUploadBenchmark extends StandInServerTestCase {
+
+    private static final String TAG = "EventUploadBench";
+
+    private static final int BATCHES = 10;
+    private static final int FIXES = 200;
+
+    public void testUploadThroughputOnSlowNetwork() throws JSONException {
+        server.setLatency(200);
+        server.setBandwidth(16 * 1024);
+
+        long bytesBefore = server.getReceivedBytes();
+        long maxMillis = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCHES; i++) {
+            EventBatch batch = createBatch(i * FIXES);
+
+            long requestStart = System.nanoTime();
+            JSONObject response = WebAPI.synchronousEventHandlerRequest(batch);
+            maxMillis = Math.max(maxMillis, (System.nanoTime() - requestStart) / 1000000);
+
+            assertNotNull(response);
+            assertEquals(FIXES, response.getJSONArray("savedEventIds").length());
+        }
+        long totalMillis = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, "Upload of " + BATCHES + "x" + FIXES + " fixes: " + (BATCHES * FIXES * 1000L / totalMillis) + " events/s, "
+                + (totalMillis / BATCHES) + " ms/request (max " + maxMillis + " ms), "
+                + ((server.getReceivedBytes() - bytesBefore) / BATCHES) + " B/request");
+    }
+
+    public void testFailedUploadBacksOff() {
+        server.failNextRequests(1, 503);
+
+        assertNull(WebAPI.synchronousEventHandlerRequest(createBatch(0)));
+        int requests = server.getRequestCount("/api/push_events_compact.json");
+
+        // Skipped during backoff, it does not reach the server
+        assertNull(WebAPI.synchronousEventHandlerRequest(createBatch(0)));
+        assertEquals(requests, server.getRequestCount("/api/push_events_compact.json"));
+
+        // Network is back, backoff is cut short
+        WebAPI.onConnectivityChanged(true);
+        assertNotNull(WebAPI.synchronousEventHandlerRequest(createBatch(0)));
+    }
+
+    public void testServiceUploadThroughput() {
+        server.setLatency(200);
+
+        int receivedBefore = server.getReceivedEventsCount();
+        long start = System.nanoTime();
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < BATCHES * FIXES; i++) {
+            EventUploaderService.addEvent(getContext(), createEvent(i, time));
+        }
+        EventUploaderService.performUpload(getContext());
+
+        assertTrue(waitForReceivedEvents(receivedBefore + BATCHES * FIXES, 60 * 1000));
+        long totalMillis = (System.nanoTime() - start) / 1000000;
+
+        Log.i(TAG, "Service upload of " + (BATCHES * FIXES) + " fixes: " + totalMillis + " ms, "
+                + (BATCHES * FIXES * 1000L / totalMillis) + " events/s, "
+                + server.getRequestCount("/api/push_events_compact.json") + " requests");
+    }
+
+    private EventBatch createBatch(int firstCounter) {
+        EventBatch batch = new EventBatch(FIXES);
+        long time = System.currentTimeMillis();
+        for (int i = 0; i < FIXES; i++) {
+            Event event = createEvent(firstCounter + i, time);
+            batch.add(event.getEventId(), event.toJSONString());
+        }
+        return batch;
+    }
+
+    private Event createEvent(int counter, long time) {
+        Location location = new Location("gps");
+        location.setLatitude(50.0755 + counter * 0.00004);
+        location.setLongitude(14.4378 + counter * 0.00003);
+        location.setAltitude(235 + (counter % 7));
+        location.setSpeed(1.4f);
+        location.setBearing(45.5f + (counter % 3));
+        location.setAccuracy(8f);
+        location.setTime(time + counter * 5000);
+
+        return new LocationUpdateEvent(getContext(), ServerFixtures.WALKER_ID, ServerFixtures.RACE_ID,
+                location, counter, counter * 5, 5.1, 3, 0);
+    }
+}
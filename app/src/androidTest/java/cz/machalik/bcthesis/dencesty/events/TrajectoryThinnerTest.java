@@ -0,0 +1,94 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Checks which location updates {@link TrajectoryThinner} keeps.
+ */
+public class TrajectoryThinnerTest extends AndroidTestCase {
+
+    public void testKeepsTrackBoundariesAndCheckpointPasses() {
+        // Straight track heading north in 11 m steps, race changes after fix 149,
+        // checkpoints are passed at fixes 50 and 200
+        TrajectoryThinner thinner = new TrajectoryThinner(300);
+        for (int i = 0; i < 300; i++) {
+            int raceId = i < 150 ? 2 : 3;
+            int checkpoint = i < 50 ? 0 : (i < 200 ? 1 : 2);
+            thinner.add(i + 1, body(i + 1, 1, raceId, 50.0 + i * 0.0001, 14.4, checkpoint));
+        }
+
+        Set<Integer> kept = kept(300, thinner.selectRedundant(10));
+        assertEquals(new TreeSet<>(Arrays.asList(1, 51, 150, 151, 201, 300)), kept);
+    }
+
+    public void testUnreadableFixSplitsTrack() {
+        // Zig-zag, so only mandatory fixes remain
+        TrajectoryThinner thinner = new TrajectoryThinner(100);
+        for (int i = 0; i < 100; i++) {
+            if (i == 50) {
+                thinner.add(i + 1, "{\"eventId\":51,\"type\":\"LocationUpdate\",\"data\":{\"latitude\":null}}");
+            } else {
+                thinner.add(i + 1, body(i + 1, 1, 2, 50.0 + i * 0.0001, 14.4 + (i % 2) * 0.01, 0));
+            }
+        }
+
+        // Unreadable fix is kept and the track ends before it and starts again after it
+        Set<Integer> kept = kept(100, thinner.selectRedundant(5));
+        assertEquals(new TreeSet<>(Arrays.asList(1, 50, 51, 52, 100)), kept);
+    }
+
+    public void testReachesTargetCountOnCurvedTrack() {
+        // Circle with radius about 2 km
+        TrajectoryThinner thinner = new TrajectoryThinner(1000);
+        for (int i = 0; i < 1000; i++) {
+            double angle = 2 * Math.PI * i / 1000;
+            thinner.add(i + 1, body(i + 1, 1, 2, 50.0 + 0.018 * Math.sin(angle), 14.4 + 0.028 * Math.cos(angle), 0));
+        }
+
+        int keptCount = kept(1000, thinner.selectRedundant(50)).size();
+        assertTrue(keptCount <= 50);
+        assertTrue(keptCount > 2); // shape is not lost
+    }
+
+    public void testReachesTargetCountOnWindingTrack() {
+        // Zig-zag with 700 m amplitude, it can not be simplified within tolerance
+        TrajectoryThinner thinner = new TrajectoryThinner(1000);
+        for (int i = 0; i < 1000; i++) {
+            thinner.add(i + 1, body(i + 1, 1, 2, 50.0 + i * 0.0001, 14.4 + (i % 2) * 0.01, 0));
+        }
+
+        Set<Integer> kept = kept(1000, thinner.selectRedundant(100));
+        assertTrue(kept.size() <= 100);
+        assertTrue(kept.contains(1));
+        assertTrue(kept.contains(1000));
+    }
+
+    /**
+     * Returns Event IDs 1..count which were not selected as redundant.
+     */
+    private static Set<Integer> kept(int count, int[] redundant) {
+        Set<Integer> kept = new TreeSet<>();
+        for (int id = 1; id <= count; id++) {
+            kept.add(id);
+        }
+        for (int id : redundant) {
+            assertTrue("Dropped twice: " + id, kept.remove(id));
+        }
+        return kept;
+    }
+
+    /**
+     * Returns LocationUpdate Event JSON with fields read by thinner.
+     */
+    private static String body(int eventId, int walkerId, int raceId, double latitude, double longitude, int lastCheckpoint) {
+        return String.format(Locale.US,
+                "{\"eventId\":%d,\"walkerId\":%d,\"raceId\":%d,\"type\":\"LocationUpdate\","
+                        + "\"data\":{\"latitude\":%.7f,\"longitude\":%.7f,\"lastCheckpoint\":%d}}",
+                eventId, walkerId, raceId, latitude, longitude, lastCheckpoint);
+    }
+}
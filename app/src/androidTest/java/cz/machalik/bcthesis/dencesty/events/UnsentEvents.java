@@ -0,0 +1,26 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+
+/**
+ * Gives tests outside of this package access to the persistent queue of unsent Events.
+ */
+public final class UnsentEvents {
+
+    private UnsentEvents() {
+    }
+
+    /**
+     * Returns the number of Events saved in journal and not acknowledged by a server yet.
+     * @param context any context
+     * @return number of unsent Events
+     */
+    public static int count(Context context) {
+        EventJournal journal = new EventJournal(context);
+        try {
+            return journal.count();
+        } finally {
+            journal.close();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Checks {@link DateCodec} against {@link SimpleDateFormat} with the same patterns and compares
+ * their cost. Results are logged.
+ */
+public class DateCodecBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "DateCodecBench";
+
+    private static final int WARMUP = 100;
+    private static final int ITERATIONS = 2000;
+
+    private static final long START_MILLIS = 1431151200000L; // 2015-05-09T06:00:00Z
+    private static final long STEP_MILLIS = 3 * 3600 * 1000 + 17 * 60 * 1000 + 23 * 1000;
+
+    private DateFormat uploadFormat;
+    private DateFormat downloadFormat;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        uploadFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z", Locale.US);
+        downloadFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        downloadFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    public void testSameResultsAsSimpleDateFormat() throws ParseException {
+        for (int i = 0; i < ITERATIONS; i++) {
+            long millis = START_MILLIS + i * STEP_MILLIS;
+
+            String upload = uploadFormat.format(new Date(millis));
+            assertEquals(upload, DateCodec.formatUpload(millis));
+            assertEquals(millis, DateCodec.parseUpload(upload));
+
+            String download = downloadFormat.format(new Date(millis));
+            assertEquals(download, DateCodec.formatDownload(millis));
+            assertEquals(millis, DateCodec.parseDownload(download));
+        }
+    }
+
+    public void testMalformedDateIsRejected() {
+        String[] malformed = {"", "2015-05-09", "2015-05-09 06:00:00Z", "2015-13-09T06:00:00Z",
+                "2015-05-09T06:00:00.xZ", "2015-05-09 08:00:00 0200", "2015-05-09 08:00:00 +02:00"};
+        for (String s : malformed) {
+            try {
+                DateCodec.parseDownload(s);
+                fail("Parsed as download: " + s);
+            } catch (ParseException e) {
+                // expected
+            }
+            try {
+                DateCodec.parseUpload(s);
+                fail("Parsed as upload: " + s);
+            } catch (ParseException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testFormatUpload() {
+        for (int i = 0; i < WARMUP; i++) {
+            uploadFormat.format(new Date(START_MILLIS + i));
+            DateCodec.formatUpload(START_MILLIS + i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            uploadFormat.format(new Date(START_MILLIS + i * STEP_MILLIS));
+        }
+        long formatNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            DateCodec.formatUpload(START_MILLIS + i * STEP_MILLIS);
+        }
+        long codecNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "Format upload: SimpleDateFormat " + formatNanos + " ns/op, DateCodec " + codecNanos + " ns/op");
+    }
+
+    public void testParseDownload() throws ParseException {
+        String[] dates = new String[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            dates[i] = DateCodec.formatDownload(START_MILLIS + i * STEP_MILLIS);
+        }
+        for (int i = 0; i < WARMUP; i++) {
+            downloadFormat.parse(dates[i]);
+            DateCodec.parseDownload(dates[i]);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            downloadFormat.parse(dates[i]);
+        }
+        long formatNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            DateCodec.parseDownload(dates[i]);
+        }
+        long codecNanos = (System.nanoTime() - start) / ITERATIONS;
+
+        Log.i(TAG, "Parse download: SimpleDateFormat " + formatNanos + " ns/op, DateCodec " + codecNanos + " ns/op");
+    }
+}
@@ -0,0 +1,68 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Decodes sample server responses with streaming decoders.
+ */
+public class ResponseDecoderTest extends AndroidTestCase {
+
+    public void testRaceDataIsDecodedWithSortedCheckpoints() throws IOException, JSONException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"race\":{\"id\":7,\"name_cs\":\"Den cesty\",\"start_time\":\"2015-05-09T06:00:00Z\",")
+            .append("\"finish_time\":\"2015-05-10T06:00:00Z\",\"extra\":[1,2]},")
+            .append("\"scoreboard\":{\"raceState\":1,\"distance\":1200,\"avgSpeed\":5.5,\"lastCheckpoint\":3},")
+            .append("\"checkpoints\":[");
+        for (int i = 99; i >= 0; i--) {
+            json.append("{\"checkid\":").append(i).append(",\"meters\":").append(i * 100)
+                .append(",\"latitude\":50.").append(i).append(",\"longitude\":14.").append(i).append('}');
+            if (i > 0) {
+                json.append(',');
+            }
+        }
+        json.append("]}");
+
+        RaceData data = new ResponseDecoder().decodeRaceData(new StringReader(json.toString()));
+
+        assertEquals(7, data.race.id);
+        assertEquals(24L * 60 * 60 * 1000, data.race.finishTime.getTime() - data.race.startTime.getTime());
+        assertTrue(data.hasScoreboard);
+        assertEquals(1, data.raceState);
+        assertEquals(1200, data.distance);
+        assertEquals(100, data.checkpoints.length);
+        assertEquals(0, data.checkpoints[0].id);
+        assertEquals(9900, data.checkpoints[99].meters);
+    }
+
+    public void testRaceDataWithoutCheckpointsIsRejected() throws IOException {
+        try {
+            new ResponseDecoder().decodeRaceData(new StringReader(
+                    "{\"race\":{\"id\":7,\"start_time\":\"2015-05-09T06:00:00Z\",\"finish_time\":\"2015-05-10T06:00:00Z\"}}"));
+            fail();
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    public void testRacesListAndScoreboardAreDecoded() throws IOException, JSONException {
+        List<RaceInfo> races = new ResponseDecoder().decodeRacesList(new StringReader(
+                "[{\"id\":1,\"name_cs\":\"A\",\"name_en\":null,\"start_time\":\"2015-05-09T06:00:00Z\",\"finish_time\":\"2015-05-10T06:00:00Z\"}]"));
+        assertEquals(1, races.size());
+        assertEquals("", races.get(0).nameEN);
+
+        Scoreboard scoreboard = new ResponseDecoder().decodeScoreboard(new StringReader(
+                "{\"distance\":100,\"speed\":4.2,\"raceState\":1,\"numWalkersAhead\":1,\"numWalkersBehind\":0," +
+                "\"numWalkersEnded\":0,\"walkersAhead\":[{\"name\":\"B\",\"distance\":200,\"speed\":4.5," +
+                "\"raceState\":1,\"updated_at\":\"2015-05-09T08:00:00Z\"}],\"walkersBehind\":[]}"));
+        assertEquals(100, scoreboard.distance);
+        assertEquals(1, scoreboard.walkersAhead.length);
+        assertEquals("B", scoreboard.walkersAhead[0].name);
+        assertEquals(0, scoreboard.walkersBehind.length);
+    }
+}
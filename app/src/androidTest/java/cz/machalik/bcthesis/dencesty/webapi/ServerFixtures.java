@@ -0,0 +1,81 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+/**
+ * Responses recorded from a server, served by {@link StandInServer}. Race route is generated,
+ * so its size matches a real race.
+ */
+public final class ServerFixtures {
+
+    public static final String EMAIL = "walker@example.com";
+    public static final String PASSWORD = "secret";
+
+    public static final int WALKER_ID = 42;
+    public static final int RACE_ID = 7;
+
+    /**
+     * Number of checkpoints of race route, a 100 km race has checkpoint every 100 m.
+     */
+    public static final int CHECKPOINTS_COUNT = 1000;
+
+    public static final String LOGIN_SUCCESS =
+            "{\"success\":true,\"id\":" + WALKER_ID + ",\"name\":\"Jan\",\"surname\":\"Novák\"}";
+
+    public static final String LOGIN_FAILED = "{\"success\":false}";
+
+    public static final String RACES_LIST =
+            "[{\"id\":" + RACE_ID + ",\"name_cs\":\"Den cesty 2015\",\"name_en\":\"Day of the Way 2015\"," +
+            "\"start_time\":\"2015-05-09T06:00:00Z\",\"finish_time\":\"2015-05-10T06:00:00Z\"}," +
+            "{\"id\":6,\"name_cs\":\"Den cesty 2014\",\"name_en\":null," +
+            "\"start_time\":\"2014-05-10T06:00:00Z\",\"finish_time\":\"2014-05-11T06:00:00Z\"}]";
+
+    public static final String RACE_DATA = raceData(CHECKPOINTS_COUNT);
+
+    public static final String SCOREBOARD = scoreboard(20);
+
+    private ServerFixtures() {
+    }
+
+    private static String raceData(int checkpoints) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"race\":{\"id\":").append(RACE_ID).append(",\"name_cs\":\"Den cesty 2015\",")
+            .append("\"name_en\":\"Day of the Way 2015\",\"start_time\":\"2015-05-09T06:00:00Z\",")
+            .append("\"finish_time\":\"2015-05-10T06:00:00Z\"},")
+            .append("\"scoreboard\":{\"raceState\":1,\"distance\":12300,\"avgSpeed\":5.4,\"lastCheckpoint\":123},")
+            .append("\"checkpoints\":[");
+        for (int i = 0; i < checkpoints; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"checkid\":").append(i).append(",\"meters\":").append(i * 100)
+                .append(",\"latitude\":").append(50.0755 + i * 0.0009)
+                .append(",\"longitude\":").append(14.4378 + i * 0.0004).append('}');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    private static String scoreboard(int walkers) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"distance\":12300,\"speed\":5.4,\"raceState\":1,\"latitude\":50.1,\"longitude\":14.5,")
+            .append("\"updated_at\":\"2015-05-09T08:15:00Z\",\"numWalkersAhead\":").append(walkers)
+            .append(",\"numWalkersBehind\":").append(walkers).append(",\"numWalkersEnded\":3,");
+        appendWalkers(json, "walkersAhead", walkers, 12400);
+        json.append(',');
+        appendWalkers(json, "walkersBehind", walkers, 12200 - walkers * 100);
+        json.append('}');
+        return json.toString();
+    }
+
+    private static void appendWalkers(StringBuilder json, String name, int count, int firstDistance) {
+        json.append('"').append(name).append("\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"Walker ").append(i).append("\",\"distance\":").append(firstDistance + i * 100)
+                .append(",\"speed\":5.").append(i % 10).append(",\"raceState\":1,")
+                .append("\"updated_at\":\"2015-05-09T08:1").append(i % 10).append(":00Z\"}");
+        }
+        json.append(']');
+    }
+}
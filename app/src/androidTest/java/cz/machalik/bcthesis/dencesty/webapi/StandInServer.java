@@ -0,0 +1,559 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local HTTP server standing in for the web server in tests, {@link StandInServerTestCase}
+ * points {@link WebAPI} to it. It serves {@link ServerFixtures} on the same paths as
+ * the web server, accepts uploaded Events (JSON array and compact format, optionally gzip
+ * compressed) and confirms their IDs.
+ *
+ * <p>
+ * Connections are kept alive like on the web server. Races list and race data have ETag.
+ * Conditional request with matching ETag is answered like by a real server: GET with 304 Not
+ * Modified, POST with 412 Precondition Failed. Response latency, bandwidth and failures
+ * can be set to emulate an overloaded network.
+ */
+public class StandInServer {
+
+    private static final String TAG = "StandInServer";
+
+    /**
+     * Response code of injected failure which closes connection without any response.
+     */
+    public static final int DROP_CONNECTION = -1;
+
+    private static final String PATH_LOGIN = "/api/login.json";
+    private static final String PATH_EVENTS = "/api/push_events.json";
+    private static final String PATH_EVENTS_COMPACT = "/api/push_events_compact.json";
+    private static final String PATH_RACES = "/api/races.json";
+    private static final String PATH_RACE_DATA = "/api/race_data/";
+    private static final String PATH_SCOREBOARD = "/api/scoreboard/";
+
+    private static final int COMPACT_FIELDS_COUNT = 17;
+    private static final int THROTTLE_CHUNK_SIZE = 1024;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Set<Socket> sockets = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private final Map<String, String> fixtures = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicInteger> requestCounts = new ConcurrentHashMap<>();
+    private final AtomicInteger receivedEventsCount = new AtomicInteger();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicInteger connectionsCount = new AtomicInteger();
+    private final AtomicInteger conditionalRequestsCount = new AtomicInteger();
+
+    private volatile int latencyMillis = 0;
+    private volatile int handshakeLatencyMillis = 0;
+    private volatile int bandwidthBytesPerSecond = 0;
+    private final AtomicInteger failuresCount = new AtomicInteger();
+    private volatile int failureResponseCode = 500;
+
+    private ServerSocket serverSocket;
+
+    /****************************** Public API: ******************************/
+
+    /**
+     * Starts server on a free local port.
+     * @throws IOException if server socket can not be opened
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        });
+    }
+
+    /**
+     * Stops server and closes all its connections.
+     */
+    public void shutdown() {
+        closeQuietly(serverSocket);
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns server address, requests of {@link WebAPI} are sent to it.
+     * @return address without trailing slash
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    /**
+     * Sets delay before every response.
+     * @param latencyMillis delay in millis, 0 for none
+     */
+    public void setLatency(int latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Sets delay before the first response on a new connection, it emulates round trips
+     * of TCP and TLS handshake.
+     * @param latencyMillis delay in millis, 0 for none
+     */
+    public void setHandshakeLatency(int latencyMillis) {
+        this.handshakeLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Limits speed of reading request bodies and writing response bodies.
+     * @param bytesPerSecond bandwidth of every connection, 0 for unlimited
+     */
+    public void setBandwidth(int bytesPerSecond) {
+        this.bandwidthBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes next requests fail, eg. with HTTP 503 of overloaded server.
+     * @param count number of requests to fail
+     * @param responseCode HTTP response code of failed requests, or {@link #DROP_CONNECTION}
+     */
+    public void failNextRequests(int count, int responseCode) {
+        this.failureResponseCode = responseCode;
+        this.failuresCount.set(count);
+    }
+
+    /**
+     * Replaces response served on given path.
+     * @param path request path without query, eg. "/api/races.json"
+     * @param body response body
+     */
+    public void setFixture(String path, String body) {
+        fixtures.put(path, body);
+    }
+
+    /**
+     * Returns number of received requests on given path, including failed ones.
+     * @param path request path without query, eg. "/api/races.json"
+     * @return requests count
+     */
+    public int getRequestCount(String path) {
+        AtomicInteger count = requestCounts.get(path);
+        return count != null ? count.get() : 0;
+    }
+
+    /**
+     * Returns number of Events confirmed as saved.
+     * @return Events count
+     */
+    public int getReceivedEventsCount() {
+        return receivedEventsCount.get();
+    }
+
+    /**
+     * Returns size of all received request bodies, as they were sent (compressed).
+     * @return size in bytes
+     */
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * Returns number of received requests with If-None-Match or If-Modified-Since header.
+     * @return requests count
+     */
+    public int getConditionalRequestsCount() {
+        return conditionalRequestsCount.get();
+    }
+
+    /**
+     * Returns number of accepted connections. It grows slower than requests count
+     * when connections are reused.
+     * @return connections count
+     */
+    public int getConnectionsCount() {
+        return connectionsCount.get();
+    }
+
+
+    /****************************** Private: ******************************/
+
+    /**
+     * Received HTTP request.
+     */
+    private static class HttpRequest {
+        String method;
+        String path;
+        final Map<String, String> headers = new HashMap<>();
+        byte[] body;
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            try {
+                final Socket socket = serverSocket.accept();
+                sockets.add(socket);
+                connectionsCount.incrementAndGet();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serveConnection(socket);
+                    }
+                });
+            } catch (IOException e) {
+                // server socket closed
+            }
+        }
+    }
+
+    /**
+     * Serves requests of one keep-alive connection until client closes it.
+     */
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            HttpRequest request;
+            boolean isFirstRequest = true;
+            while ((request = readRequest(in)) != null) {
+                long start = System.nanoTime();
+                countRequest(request.path);
+                if (isFirstRequest) {
+                    sleep(handshakeLatencyMillis);
+                    isFirstRequest = false;
+                }
+
+                if (takeFailure()) {
+                    if (failureResponseCode == DROP_CONNECTION) {
+                        break;
+                    }
+                    sleep(latencyMillis);
+                    writeResponse(out, failureResponseCode, null, null, start);
+                    continue;
+                }
+
+                throttle(request.body.length, start);
+                sleep(latencyMillis);
+                handle(request, out, start);
+
+                if ("close".equalsIgnoreCase(request.headers.get("connection"))) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // closed by client or by shutdown
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Serving request failed: " + e.getLocalizedMessage());
+        } finally {
+            sockets.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    private void handle(HttpRequest request, OutputStream out, long start) throws IOException, JSONException {
+        String path = request.path;
+        String fixture = fixtures.get(path);
+
+        if (fixture != null) {
+            writeCacheableResponse(request, out, fixture, start);
+        } else if (PATH_LOGIN.equals(path)) {
+            Map<String, String> form = parseForm(new String(request.body, "US-ASCII"));
+            boolean success = ServerFixtures.EMAIL.equals(form.get("email"))
+                    && ServerFixtures.PASSWORD.equals(form.get("password"));
+            writeResponse(out, 200, success ? ServerFixtures.LOGIN_SUCCESS : ServerFixtures.LOGIN_FAILED, null, start);
+        } else if (PATH_EVENTS.equals(path) || PATH_EVENTS_COMPACT.equals(path)) {
+            String body = readBody(request);
+            List<Integer> ids = PATH_EVENTS.equals(path) ? parseEventIds(new JSONArray(body)) : parseCompactEventIds(new JSONObject(body));
+            receivedEventsCount.addAndGet(ids.size());
+            writeResponse(out, 200, new JSONObject().put("savedEventIds", new JSONArray(ids)).toString(), null, start);
+        } else if (PATH_RACES.equals(path)) {
+            writeCacheableResponse(request, out, ServerFixtures.RACES_LIST, start);
+        } else if (path.startsWith(PATH_RACE_DATA)) {
+            writeCacheableResponse(request, out, ServerFixtures.RACE_DATA, start);
+        } else if (path.startsWith(PATH_SCOREBOARD)) {
+            writeResponse(out, 200, ServerFixtures.SCOREBOARD, null, start);
+        } else {
+            writeResponse(out, 404, null, null, start);
+        }
+    }
+
+    /**
+     * Writes response with ETag. If client has it already, GET is answered with 304 Not Modified
+     * and other methods with 412 Precondition Failed (RFC 7232).
+     */
+    private void writeCacheableResponse(HttpRequest request, OutputStream out, String body, long start) throws IOException {
+        String eTag = "\"" + Integer.toHexString(body.hashCode()) + "\"";
+        if (request.headers.containsKey("if-none-match") || request.headers.containsKey("if-modified-since")) {
+            conditionalRequestsCount.incrementAndGet();
+        }
+        if (eTag.equals(request.headers.get("if-none-match"))) {
+            boolean isSafe = "GET".equals(request.method) || "HEAD".equals(request.method);
+            writeResponse(out, isSafe ? 304 : 412, null, eTag, start);
+        } else {
+            writeResponse(out, 200, body, eTag, start);
+        }
+    }
+
+    private void writeResponse(OutputStream out, int code, String body, String eTag, long start) throws IOException {
+        byte[] bytes = body != null ? body.getBytes("UTF-8") : new byte[0];
+
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(code).append(' ').append(reasonPhrase(code)).append("\r\n");
+        if (eTag != null) {
+            head.append("ETag: ").append(eTag).append("\r\n");
+        }
+        if (code != 304) {
+            head.append("Content-Type: application/json; charset=utf-8\r\n");
+            head.append("Content-Length: ").append(bytes.length).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("US-ASCII"));
+
+        long bodyStart = System.nanoTime();
+        for (int offset = 0; offset < bytes.length; offset += THROTTLE_CHUNK_SIZE) {
+            int count = Math.min(THROTTLE_CHUNK_SIZE, bytes.length - offset);
+            out.write(bytes, offset, count);
+            throttle(offset + count, bodyStart);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads request line, headers and body.
+     * @return request, or null if client closed connection
+     */
+    private HttpRequest readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null) {
+            return null;
+        }
+
+        HttpRequest request = new HttpRequest();
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) {
+            throw new IOException("Malformed request line: " + requestLine);
+        }
+        request.method = parts[0];
+        int queryStart = parts[1].indexOf('?');
+        request.path = queryStart < 0 ? parts[1] : parts[1].substring(0, queryStart);
+
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        if ("chunked".equalsIgnoreCase(request.headers.get("transfer-encoding"))) {
+            int size;
+            while ((size = Integer.parseInt(readLine(in).trim(), 16)) > 0) {
+                copy(in, body, size);
+                readLine(in); // CRLF after chunk
+            }
+            readLine(in); // CRLF after last chunk
+        } else if (request.headers.containsKey("content-length")) {
+            copy(in, body, Integer.parseInt(request.headers.get("content-length")));
+        }
+        request.body = body.toByteArray();
+        receivedBytes.addAndGet(request.body.length);
+        return request;
+    }
+
+    /**
+     * Returns request body as string, decompressed if it is gzip compressed.
+     */
+    private static String readBody(HttpRequest request) throws IOException {
+        InputStream in = new ByteArrayInputStream(request.body);
+        if ("gzip".equalsIgnoreCase(request.headers.get("content-encoding"))) {
+            in = new GZIPInputStream(in);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[THROTTLE_CHUNK_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            body.write(buffer, 0, n);
+        }
+        return body.toString("UTF-8");
+    }
+
+    private static List<Integer> parseEventIds(JSONArray events) throws JSONException {
+        List<Integer> ids = new ArrayList<>(events.length());
+        for (int i = 0; i < events.length(); i++) {
+            ids.add(events.getJSONObject(i).getInt("eventId"));
+        }
+        return ids;
+    }
+
+    /**
+     * Reads Event IDs of compact format, see CompactEventBatchWriter.
+     */
+    private static List<Integer> parseCompactEventIds(JSONObject batch) throws JSONException {
+        List<Integer> ids = parseEventIds(batch.getJSONArray("events"));
+
+        JSONArray groups = batch.getJSONArray("locations");
+        for (int i = 0; i < groups.length(); i++) {
+            String fixes = groups.getJSONObject(i).getString("fixes");
+            long eventId = 0;
+            int field = 0;
+            int position = 0;
+            while (position < fixes.length()) {
+                long value = 0;
+                int shift = 0;
+                int chunk;
+                do {
+                    chunk = fixes.charAt(position++) - 63;
+                    value |= (long) (chunk & 0x1f) << shift;
+                    shift += 5;
+                } while (chunk >= 0x20);
+
+                if (field == 0) {
+                    eventId += (value >>> 1) ^ -(value & 1); // zig-zag
+                    ids.add((int) eventId);
+                }
+                field = (field + 1) % COMPACT_FIELDS_COUNT;
+            }
+        }
+        return ids;
+    }
+
+    private static Map<String, String> parseForm(String form) throws UnsupportedEncodingException {
+        Map<String, String> values = new HashMap<>();
+        for (String pair : form.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                values.put(pair.substring(0, equals), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+        return values;
+    }
+
+    private void countRequest(String path) {
+        requestCounts.putIfAbsent(path, new AtomicInteger());
+        requestCounts.get(path).incrementAndGet();
+    }
+
+    /**
+     * Returns true if the current request should fail.
+     */
+    private boolean takeFailure() {
+        int count;
+        do {
+            count = failuresCount.get();
+            if (count <= 0) {
+                return false;
+            }
+        } while (!failuresCount.compareAndSet(count, count - 1));
+        return true;
+    }
+
+    /**
+     * Sleeps until given amount of data could be transferred with set bandwidth.
+     */
+    private void throttle(long bytes, long startNanos) {
+        int bandwidth = bandwidthBytesPerSecond;
+        if (bandwidth <= 0) {
+            return;
+        }
+        long targetMillis = bytes * 1000 / bandwidth;
+        long elapsedMillis = (System.nanoTime() - startNanos) / 1000000;
+        sleep((int) (targetMillis - elapsedMillis));
+    }
+
+    private static void sleep(int millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int length = line.length();
+                return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+
+    private static void copy(InputStream in, OutputStream out, int count) throws IOException {
+        byte[] buffer = new byte[THROTTLE_CHUNK_SIZE];
+        while (count > 0) {
+            int n = in.read(buffer, 0, Math.min(buffer.length, count));
+            if (n == -1) {
+                throw new EOFException("Truncated request body");
+            }
+            out.write(buffer, 0, n);
+            count -= n;
+        }
+    }
+
+    private static String reasonPhrase(int code) {
+        switch (code) {
+            case 200: return "OK";
+            case 304: return "Not Modified";
+            case 404: return "Not Found";
+            case 412: return "Precondition Failed";
+            case 415: return "Unsupported Media Type";
+            case 500: return "Internal Server Error";
+            case 503: return "Service Unavailable";
+            default: return "Error";
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    private static void closeQuietly(ServerSocket serverSocket) {
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+import cz.machalik.bcthesis.dencesty.MyApplication;
+import cz.machalik.bcthesis.dencesty.events.EventUploaderService;
+import cz.machalik.bcthesis.dencesty.events.UnsentEvents;
+import cz.machalik.bcthesis.dencesty.model.User;
+
+/**
+ * Test case with {@link StandInServer} in place of the web server. The fixture walker
+ * is logged in for every test, saved login of the app is put back after the test. The app
+ * has no test hooks, login is put back to SharedPreferences of User and the web server address
+ * to WebAPI field directly.
+ *
+ * <p>
+ * Test fails right away if there are unsent Events of the app, they would be uploaded
+ * to the stand-in server and lost. Events queued during the test (eg. Login Event) are uploaded
+ * to the stand-in server before and after every test, so none of them reaches the web server.
+ */
+public abstract class StandInServerTestCase extends AndroidTestCase {
+
+    private static final long DRAIN_TIMEOUT_IN_MILLISECONDS = 10 * 1000;
+
+    // SharedPreferences keys of User, login state and credentials
+    private static final String[] USER_KEYS = {
+            "cz.machalik.bcthesis.dencesty.User.email",
+            "cz.machalik.bcthesis.dencesty.User.state.isLogged",
+            "cz.machalik.bcthesis.dencesty.User.state.walkerId",
+            "cz.machalik.bcthesis.dencesty.User.state.walkerName",
+            "cz.machalik.bcthesis.dencesty.User.state.walkerSurname",
+    };
+    private static final String USER_PASSWORD_KEY = "cz.machalik.bcthesis.dencesty.User.password";
+
+    protected StandInServer server;
+
+    private final Map<String, Object> savedUserPreferences = new HashMap<>();
+    private String savedPassword;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        assertEquals("App has unsent Events, upload them before running tests", 0, UnsentEvents.count(getContext()));
+        saveUser();
+
+        server = new StandInServer();
+        server.start();
+        boolean isReady = false;
+        try {
+            setServerUrl(server.getUrl());
+            WebAPI.onConnectivityChanged(true); // no backoff left from previous test
+
+            assertEquals(User.LoginResult.SUCCESS,
+                    User.get().attemptLogin(getContext(), ServerFixtures.EMAIL, ServerFixtures.PASSWORD));
+            drainEventQueue();
+            isReady = true;
+        } finally {
+            if (!isReady) {
+                // tearDown is not called when setUp fails
+                restoreApp();
+            }
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        server.setLatency(0);
+        server.setHandshakeLatency(0);
+        server.setBandwidth(0);
+        server.failNextRequests(0, 0);
+        WebAPI.onConnectivityChanged(true);
+        drainEventQueue();
+
+        restoreApp();
+        super.tearDown();
+    }
+
+    /**
+     * Waits until stand-in server confirms given number of Events in total.
+     * @param count expected Events count
+     * @param timeoutMillis maximum time to wait
+     * @return true if Events were received in time
+     */
+    protected boolean waitForReceivedEvents(int count, long timeoutMillis) {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        while (server.getReceivedEventsCount() < count) {
+            if (SystemClock.elapsedRealtime() > deadline) {
+                return false;
+            }
+            SystemClock.sleep(20);
+        }
+        return true;
+    }
+
+    /**
+     * Puts back saved login of the app and the web server address.
+     */
+    private void restoreApp() throws Exception {
+        restoreUser();
+        setServerUrl(WebAPI.URL_WEBSERVER);
+        server.shutdown();
+    }
+
+    /**
+     * Saves login state and credentials of the app user.
+     */
+    private void saveUser() {
+        savedUserPreferences.clear();
+        Map<String, ?> all = PreferenceManager.getDefaultSharedPreferences(getContext()).getAll();
+        for (String key : USER_KEYS) {
+            if (all.containsKey(key)) {
+                savedUserPreferences.put(key, all.get(key));
+            }
+        }
+        savedPassword = MyApplication.get().getSecureSharedPreferences().getString(USER_PASSWORD_KEY, null);
+    }
+
+    /**
+     * Puts back saved login state and credentials. User model is created again from them,
+     * the same way as after the app process is restarted.
+     */
+    private void restoreUser() throws Exception {
+        SharedPreferences.Editor editor = PreferenceManager.getDefaultSharedPreferences(getContext()).edit();
+        for (String key : USER_KEYS) {
+            Object value = savedUserPreferences.get(key);
+            if (value == null) {
+                editor.remove(key);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof Integer) {
+                editor.putInt(key, (Integer) value);
+            } else {
+                editor.putString(key, value.toString());
+            }
+        }
+        editor.commit();
+
+        SharedPreferences.Editor secureEditor = MyApplication.get().getSecureSharedPreferences().edit();
+        if (savedPassword == null) {
+            secureEditor.remove(USER_PASSWORD_KEY);
+        } else {
+            secureEditor.putString(USER_PASSWORD_KEY, savedPassword);
+        }
+        secureEditor.commit();
+
+        Field userModel = MyApplication.class.getDeclaredField("userModel");
+        userModel.setAccessible(true);
+        userModel.set(MyApplication.get(), null);
+    }
+
+    /**
+     * Points all WebAPI requests to given web server.
+     * @param url web server address without trailing slash
+     */
+    private static void setServerUrl(String url) throws Exception {
+        Field serverUrl = WebAPI.class.getDeclaredField("serverUrl");
+        serverUrl.setAccessible(true);
+        serverUrl.set(null, url);
+    }
+
+    /**
+     * Uploads all queued Events to stand-in server.
+     */
+    private void drainEventQueue() {
+        EventUploaderService.performUpload(getContext());
+        long deadline = SystemClock.elapsedRealtime() + DRAIN_TIMEOUT_IN_MILLISECONDS;
+        do {
+            SystemClock.sleep(100);
+        } while (EventUploaderService.getEventQueueSize() > 0 && SystemClock.elapsedRealtime() < deadline);
+    }
+}
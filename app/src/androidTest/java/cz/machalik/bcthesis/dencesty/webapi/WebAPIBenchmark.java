@@ -0,0 +1,174 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/**
+ * Measures {@link WebAPI} downloads end to end against {@link StandInServer} with emulated
+ * latency, bandwidth and failures. Results are logged.
+ */
+public class WebAPIBenchmark extends StandInServerTestCase {
+
+    private static final String TAG = "WebAPIBench";
+
+    private static final int ITERATIONS = 10;
+
+    public void testRacesListIsDecodedFromFixture() {
+        List<RaceInfo> races = WebAPI.synchronousRacesListUpdateRequest();
+
+        assertNotNull(races);
+        assertEquals(2, races.size());
+        assertEquals(ServerFixtures.RACE_ID, races.get(0).id);
+    }
+
+    public void testCachedRaceDataOnSlowNetwork() {
+        server.setLatency(200);
+        server.setBandwidth(64 * 1024);
+
+        long start = System.nanoTime();
+        RaceData downloaded = WebAPI.synchronousRaceDataRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID);
+        long downloadMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        RaceData cached = WebAPI.getCachedRaceData(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID);
+        long cachedMillis = (System.nanoTime() - start) / 1000000;
+
+        // Repeated request is downloaded again, requests are POST and can not be conditional
+        assertNotNull(WebAPI.synchronousRaceDataRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID));
+
+        Log.i(TAG, "Race data (" + ServerFixtures.RACE_DATA.length() + " B): download " + downloadMillis + " ms, "
+                + "from cache " + cachedMillis + " ms");
+        assertNotNull(downloaded);
+        assertNotNull(cached);
+        assertEquals(ServerFixtures.CHECKPOINTS_COUNT, cached.checkpoints.length);
+        assertEquals(0, server.getConditionalRequestsCount());
+    }
+
+    public void testScoreboardLatency() {
+        server.setLatency(300);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Other race every time, scoreboard of the same race would be reused
+            assertNotNull(WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID + i, ServerFixtures.WALKER_ID));
+        }
+        long requestMillis = (System.nanoTime() - start) / 1000000 / ITERATIONS;
+
+        Log.i(TAG, "Scoreboard with 300 ms latency: " + requestMillis + " ms/request, "
+                + server.getConnectionsCount() + " connections");
+        assertTrue(requestMillis >= 300);
+    }
+
+    public void testConnectionIsReused() {
+        int connectionsBefore = server.getConnectionsCount();
+
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Other race every time, scoreboard of the same race would be reused
+            assertNotNull(WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID + i, ServerFixtures.WALKER_ID));
+        }
+
+        int connections = server.getConnectionsCount() - connectionsBefore;
+        Log.i(TAG, ITERATIONS + " scoreboard requests: " + connections + " new connections");
+        assertTrue(connections < ITERATIONS);
+    }
+
+    public void testKeepAliveAgainstDisconnectPerRequest() throws IOException {
+        server.setLatency(50);
+        server.setHandshakeLatency(300);
+
+        int connectionsBefore = server.getConnectionsCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            request(i, false);
+        }
+        long keepAliveMillis = (System.nanoTime() - start) / 1000000 / ITERATIONS;
+        int keepAliveConnections = server.getConnectionsCount() - connectionsBefore;
+
+        connectionsBefore = server.getConnectionsCount();
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            request(i, true);
+        }
+        long disconnectMillis = (System.nanoTime() - start) / 1000000 / ITERATIONS;
+        int disconnectConnections = server.getConnectionsCount() - connectionsBefore;
+
+        Log.i(TAG, "Scoreboard with 300 ms handshake, 50 ms latency: keep-alive " + keepAliveMillis + " ms/request ("
+                + keepAliveConnections + " connections), disconnect per request " + disconnectMillis + " ms/request ("
+                + disconnectConnections + " connections)");
+        assertTrue(keepAliveConnections < ITERATIONS);
+        assertTrue(disconnectConnections >= ITERATIONS - 1); // the first one may reuse pooled connection
+    }
+
+    public void testConcurrentScoreboardRequestsShareOneDownload() throws InterruptedException {
+        server.setLatency(500);
+
+        final Scoreboard[] results = new Scoreboard[ITERATIONS];
+        Thread[] threads = new Thread[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    results[index] = WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (Scoreboard result : results) {
+            assertNotNull(result);
+        }
+        assertEquals(1, server.getRequestCount("/api/scoreboard/" + ServerFixtures.RACE_ID + ".json"));
+
+        // Repeated request within freshness window
+        assertNotNull(WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID));
+        assertEquals(1, server.getRequestCount("/api/scoreboard/" + ServerFixtures.RACE_ID + ".json"));
+    }
+
+    public void testFailedRequestReturnsNull() {
+        server.failNextRequests(1, 503);
+
+        assertNull(WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID));
+        assertNotNull(WebAPI.synchronousWalkersListRequest(ServerFixtures.RACE_ID, ServerFixtures.WALKER_ID));
+    }
+
+    /**
+     * Downloads scoreboard with {@link HttpClient}, without parsing it.
+     * @param index index of request, every request is for other race
+     * @param disconnect true to close connection after request, as it was done
+     *                   before connections were released for reuse ("Connection: close"
+     *                   makes sure the socket is not pooled anyway)
+     */
+    private void request(int index, boolean disconnect) throws IOException {
+        URL url = new URL(server.getUrl() + "/api/scoreboard/" + (ServerFixtures.RACE_ID + index)
+                + ".json?walker_id=" + ServerFixtures.WALKER_ID);
+        HttpURLConnection urlConnection = HttpClient.open(url, 10 * 1000);
+        if (disconnect) {
+            urlConnection.setRequestProperty("Connection", "close");
+        }
+        try {
+            urlConnection.connect();
+            assertEquals(200, urlConnection.getResponseCode());
+            InputStream in = urlConnection.getInputStream();
+            byte[] buffer = new byte[1024];
+            while (in.read(buffer) != -1) {
+                // discard
+            }
+            in.close();
+        } finally {
+            if (disconnect) {
+                urlConnection.disconnect();
+            } else {
+                HttpClient.release(urlConnection);
+            }
+        }
+    }
+}
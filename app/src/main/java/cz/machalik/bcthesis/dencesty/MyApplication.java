@@ -9,9 +9,12 @@ import com.securepreferences.SecurePreferences;
 import org.acra.ACRA;
 import org.acra.annotation.ReportsCrashes;
 
+import cz.machalik.bcthesis.dencesty.events.ConnectivityReceiver;
+import cz.machalik.bcthesis.dencesty.events.EventUploaderService;
 import cz.machalik.bcthesis.dencesty.model.RaceModel;
 import cz.machalik.bcthesis.dencesty.model.User;
 import cz.machalik.bcthesis.dencesty.model.WalkersModel;
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
  * Custom Application object that holds references to all models, provide access to encrypted
@@ -87,6 +90,15 @@ public class MyApplication extends Application {
 
         // The following line triggers the initialization of ACRA
         ACRA.init(this);
+
+        // Shared HTTP client for all server requests
+        WebAPI.init(this);
+
+        // Upload unsent Events as soon as network is back
+        ConnectivityReceiver.register(this);
+
+        // Upload Events remaining in persistent queue from previous runs
+        EventUploaderService.performUpload(this);
     }
 
     /**
@@ -84,7 +84,8 @@ public class LoginActivity extends Activity {
     }
 
     /**
-     * Attempt automatic login with already saved credentials.
+     * Attempt automatic login with already saved credentials. Cached session from previous
+     * login is opened immediately and its credentials are revalidated on background.
      */
     private void attemptAutomaticLogin() {
         if (User.get().hasSavedCredentials(this)) {
@@ -93,8 +94,14 @@ public class LoginActivity extends Activity {
 
             mEmailView.setText(email);
 
-            Log.i(TAG, "Attempting automatic login");
-            performLoginTask(email, password);
+            if (User.get().hasCachedSession(this)) {
+                Log.i(TAG, "Opening cached session");
+                onSuccessfulLogin();
+                new SessionRevalidationTask(this).execute((Void) null);
+            } else {
+                Log.i(TAG, "Attempting automatic login");
+                performLoginTask(email, password);
+            }
         }
     }
 
@@ -218,6 +225,18 @@ public class LoginActivity extends Activity {
         mPasswordView.requestFocus();
     }
 
+    /**
+     * Called when a server rejected credentials of cached session. Returns user back to
+     * login form, screens opened from cached session are closed.
+     */
+    private void onSessionExpired() {
+        Intent intent = new Intent(this, LoginActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        startActivity(intent);
+
+        onFailedLogin();
+    }
+
     /**
      * Called on failed login attempt due to connection problems.
      */
@@ -275,6 +294,32 @@ public class LoginActivity extends Activity {
             showProgress(false);
         }
     }
+
+    /**
+     * Revalidates cached session on background, while the user already uses the app.
+     * Only rejected credentials are reported, connection errors are ignored.
+     */
+    private class SessionRevalidationTask extends AsyncTask<Void, Void, LoginResult> {
+
+        private final Context mContext;
+
+        public SessionRevalidationTask(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        protected LoginResult doInBackground(Void... params) {
+            return User.get().revalidateSession(mContext);
+        }
+
+        @Override
+        protected void onPostExecute(final LoginResult result) {
+            // Started race keeps its session, do not close it
+            if (result == LoginResult.FAILED && !User.get().isLogged() && !isFinishing()) {
+                onSessionExpired();
+            }
+        }
+    }
 }
 
 
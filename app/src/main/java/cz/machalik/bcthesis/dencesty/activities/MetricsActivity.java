@@ -0,0 +1,106 @@
+package cz.machalik.bcthesis.dencesty.activities;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.widget.TextView;
+
+import java.util.Arrays;
+
+import cz.machalik.bcthesis.dencesty.R;
+import cz.machalik.bcthesis.dencesty.events.EventUploaderService;
+import cz.machalik.bcthesis.dencesty.webapi.RequestMetrics;
+
+/**
+ * A debug screen with upload metrics: outcomes, latencies and transferred bytes
+ * of requests to each server endpoint and state of the Event queue.
+ *
+ * @author Lukáš Machalík
+ */
+public class MetricsActivity extends Activity {
+
+    /**
+     * Interval of refreshing shown metrics.
+     */
+    private static final long REFRESH_INTERVAL_IN_MILLISECONDS = 1000;
+
+    private final Handler handler = new Handler();
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refreshMetrics();
+            handler.postDelayed(this, REFRESH_INTERVAL_IN_MILLISECONDS);
+        }
+    };
+
+    // UI references.
+    private TextView mMetricsText;
+
+    /**
+     * Called when the activity is starting.
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        mMetricsText = (TextView) findViewById(R.id.metrics_text);
+    }
+
+    /**
+     * Starts periodic refreshing of metrics.
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        handler.post(refreshRunnable);
+    }
+
+    /**
+     * Stops periodic refreshing of metrics.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        handler.removeCallbacks(refreshRunnable);
+    }
+
+    /**
+     * Shows current metrics.
+     */
+    private void refreshMetrics() {
+        long uptime = RequestMetrics.getUptime();
+        double hours = Math.max(uptime / (60.0 * 60 * 1000), 1.0 / 60); // at least a minute
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Uptime: ").append(uptime / (60 * 1000)).append(" min\n");
+        sb.append("Unsent events: ").append(EventUploaderService.getEventQueueSize())
+          .append(' ').append(Arrays.toString(EventUploaderService.getEventQueueLaneSizes())).append('\n');
+        sb.append("Uploaded events: ").append(EventUploaderService.getUploadedEventsCount()).append('\n');
+        sb.append("Saved upload requests: ").append(EventUploaderService.getSavedUploadRequestsCount()).append('\n');
+
+        for (RequestMetrics metrics : RequestMetrics.getAll()) {
+            long requests = metrics.getRequestsCount();
+            long success = metrics.getOutcomeCount(RequestMetrics.OUTCOME_SUCCESS);
+            sb.append('\n').append(metrics.getName()).append('\n');
+            sb.append(String.format("  requests %d, success %.0f %%\n", requests,
+                    requests > 0 ? 100.0 * success / requests : 0.0));
+            sb.append(String.format("  http %d, io %d, parse %d, skipped %d\n",
+                    metrics.getOutcomeCount(RequestMetrics.OUTCOME_HTTP_ERROR),
+                    metrics.getOutcomeCount(RequestMetrics.OUTCOME_IO_ERROR),
+                    metrics.getOutcomeCount(RequestMetrics.OUTCOME_PARSE_ERROR),
+                    metrics.getOutcomeCount(RequestMetrics.OUTCOME_SKIPPED)));
+            sb.append(String.format("  latency p50 %d, p95 %d, p99 %d, max %d ms\n",
+                    metrics.getLatencyPercentile(50), metrics.getLatencyPercentile(95),
+                    metrics.getLatencyPercentile(99), metrics.getLatencyMax()));
+            sb.append(String.format("  sent %d B (%.0f B/h), received %d B (%.0f B/h)\n",
+                    metrics.getBytesSent(), metrics.getBytesSent() / hours,
+                    metrics.getBytesReceived(), metrics.getBytesReceived() / hours));
+        }
+
+        mMetricsText.setText(sb.toString());
+    }
+}
@@ -20,7 +20,10 @@ import java.util.Locale;
 import cz.machalik.bcthesis.dencesty.MyApplication;
 import cz.machalik.bcthesis.dencesty.R;
 import cz.machalik.bcthesis.dencesty.model.RaceModel;
+import cz.machalik.bcthesis.dencesty.model.User;
 import cz.machalik.bcthesis.dencesty.model.WalkersModel;
+import cz.machalik.bcthesis.dencesty.webapi.RaceData;
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
  * A race detail screen that contains 3 tabs (fragments) with race detail, race scoreboard and map.
@@ -110,12 +113,16 @@ public class RaceTabbedActivity extends Activity implements ActionBar.TabListene
 
     /**
      * Represents an asynchronous task used to load race data for Race Model initialization.
+     * If race data are cached, Race Model is initialized from cache and shown immediately,
+     * then it is updated with fresh data from a server. Progress dialog is shown only when
+     * there is nothing cached.
      */
-    private class LoadRaceTask extends AsyncTask<Void, Void, Boolean> {
+    private class LoadRaceTask extends AsyncTask<Void, Boolean, RaceData> {
 
         private final Context mContext;
         private final int mRaceId;
         private ProgressDialog dialog;
+        private RaceModel cachedRaceModel = null;
 
         public LoadRaceTask(Context context, int raceId) {
             mContext = context;
@@ -124,29 +131,55 @@ public class RaceTabbedActivity extends Activity implements ActionBar.TabListene
         }
 
         @Override
-        protected void onPreExecute() {
-            dialog.setMessage(getString(R.string.downloading_race_info));
-            dialog.show();
+        protected RaceData doInBackground(Void... params) {
+            RaceModel raceModel = new RaceModel();
+            if (raceModel.initFromCache(mContext, mRaceId)) {
+                cachedRaceModel = raceModel;
+                publishProgress(true);
+            } else {
+                publishProgress(false);
+            }
+
+            // Revalidates cached race data, unchanged data cost only a short response
+            return WebAPI.synchronousRaceDataRequest(mRaceId, User.get().getWalkerId());
         }
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            preparedRaceModel = new RaceModel();
-            return preparedRaceModel.init(mContext, mRaceId);
+        protected void onProgressUpdate(Boolean... isCached) {
+            if (isCached[0]) {
+                Log.i(TAG, "LoadRace from cache");
+                preparedRaceModel = cachedRaceModel;
+                onSuccessfulLoadRace();
+            } else {
+                dialog.setMessage(getString(R.string.downloading_race_info));
+                dialog.show();
+            }
         }
 
         @Override
-        protected void onPostExecute(final Boolean success) {
+        protected void onPostExecute(final RaceData response) {
             mLoadRaceTask = null;
             if (dialog.isShowing()) {
                 dialog.dismiss();
             }
 
-            if (success) {
+            if (cachedRaceModel != null) {
+                if (response == null) {
+                    Log.i(TAG, "Failed LoadRace, using cached race data");
+                } else if (getRaceModel() == cachedRaceModel) {
+                    cachedRaceModel.update(mContext, response);
+                    getRaceModel().checkFinishFromActivity(RaceTabbedActivity.this);
+                }
+                return;
+            }
+
+            preparedRaceModel = new RaceModel();
+            if (preparedRaceModel.init(mContext, response)) {
                 Log.i(TAG, "Successful LoadRace");
                 onSuccessfulLoadRace();
             } else {
                 Log.i(TAG, "Failed LoadRace");
+                preparedRaceModel = null;
                 finish();
             }
         }
@@ -17,10 +17,6 @@ import android.widget.BaseAdapter;
 import android.widget.ListView;
 import android.widget.TextView;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -29,6 +25,9 @@ import java.util.List;
 import cz.machalik.bcthesis.dencesty.R;
 import cz.machalik.bcthesis.dencesty.location.BackgroundLocationService;
 import cz.machalik.bcthesis.dencesty.model.User;
+import cz.machalik.bcthesis.dencesty.webapi.RaceInfo;
+import cz.machalik.bcthesis.dencesty.webapi.RequestEngine;
+import cz.machalik.bcthesis.dencesty.webapi.RequestFuture;
 import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
@@ -52,9 +51,14 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
     public static final int TIMEINTERVAL_BEFORE_START_TO_ALLOW_CONTINUE = 10 * 60; // in seconds
 
     /**
-     * Keep track of the refresh task to ensure we can cancel it if requested.
+     * Keep track of the refresh request to ensure we can cancel it if requested.
+     */
+    private RequestFuture<List<RaceInfo>> mRefreshRequest = null;
+
+    /**
+     * Keep track of the cached races list load task to ensure we can cancel it if requested.
      */
-    private RacesUpdateAsyncTask mRefreshTask = null;
+    private LoadCachedRacesTask mLoadCachedTask = null;
 
     /**
      * Race items.
@@ -89,6 +93,10 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
 
         ListView lv = (ListView)findViewById(android.R.id.list);
         lv.setEmptyView(mEmptySwipeContainer);
+
+        // Show races list from the last refresh as soon as it is read, refresh revalidates it
+        mLoadCachedTask = new LoadCachedRacesTask();
+        mLoadCachedTask.execute();
     }
 
     /**
@@ -111,7 +119,7 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
     }
 
     /**
-     * Creates options menu (for Logout button).
+     * Creates options menu (for Logout and Upload statistics buttons).
      */
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -133,6 +141,9 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
         if (id == R.id.action_logout) {
             logout();
             return true;
+        } else if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
         }
 
         return super.onOptionsItemSelected(item);
@@ -156,54 +167,76 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
     }
 
     /**
-     * Creates new background download task to update races list.
+     * Called when the activity is being destroyed. Cancels pending refresh request.
+     */
+    @Override
+    protected void onDestroy() {
+        if (mLoadCachedTask != null) {
+            mLoadCachedTask.cancel(false);
+            mLoadCachedTask = null;
+        }
+        if (mRefreshRequest != null) {
+            mRefreshRequest.cancel(true);
+            mRefreshRequest = null;
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Submits new background download request to update races list.
      */
     private void attemptRefresh() {
-        if (mRefreshTask != null) {
+        if (mRefreshRequest != null) {
             return;
         }
 
-        // Show a progress spinner, and kick off a background task to
+        // Show a progress spinner, and kick off a background request to
         // perform the race info refresh attempt.
         // showProgress(true);
-        mRefreshTask = new RacesUpdateAsyncTask(this);
-        mRefreshTask.execute();
+        mRefreshRequest = WebAPI.racesListUpdateRequest(new RequestEngine.Callback<List<RaceInfo>>() {
+            @Override
+            public void onResult(List<RaceInfo> response) {
+                mRefreshRequest = null;
+                showProgress(false);
+
+                if (processResponse(response)) {
+                    //Log.i(TAG, "Successful RacesUpdate");
+                    lastTimeRefreshed = new Date();
+                    updateRacesList();
+                } else {
+                    Log.i(TAG, "Failed RacesUpdate");
+                }
+            }
+        });
+        if (mRefreshRequest == null) {
+            showProgress(false);
+        }
     }
 
     /**
-     * Represents an asynchronous task used to refresh list of races.
+     * Represents an asynchronous task used to read races list from the last refresh
+     * from disk. It is shown only if no refresh has succeeded in the meantime.
      */
-    private class RacesUpdateAsyncTask extends AsyncTask<Void, Void, Boolean> {
-
-        private final Context mContext;
-        public RacesUpdateAsyncTask (Context context){
-            this.mContext = context;
-        }
+    private class LoadCachedRacesTask extends AsyncTask<Void, Void, List<RaceInfo>> {
 
         @Override
-        protected Boolean doInBackground(Void... params) {
-            JSONArray response = WebAPI.synchronousRacesListUpdateRequest();
-            return processResponse(response);
+        protected List<RaceInfo> doInBackground(Void... params) {
+            return WebAPI.getCachedRacesList();
         }
 
         @Override
-        protected void onPostExecute(Boolean success) {
-            mRefreshTask = null;
-            showProgress(false);
+        protected void onPostExecute(final List<RaceInfo> response) {
+            mLoadCachedTask = null;
 
-            if (success) {
-                //Log.i(TAG, "Successful RacesUpdate");
-                lastTimeRefreshed = new Date();
+            if (lastTimeRefreshed == null && processResponse(response)) {
+                Log.i(TAG, "RacesList from cache");
                 updateRacesList();
-            } else {
-                Log.i(TAG, "Failed RacesUpdate");
             }
         }
 
         @Override
         protected void onCancelled() {
-            mRefreshTask = null;
-            showProgress(false);
+            mLoadCachedTask = null;
         }
     }
 
@@ -212,32 +245,19 @@ public class RacesListActivity extends ListActivity implements SwipeRefreshLayou
      * @param response server response data
      * @return returns true if data were successfully parsed
      */
-    private Boolean processResponse(JSONArray response) {
+    private Boolean processResponse(List<RaceInfo> response) {
 
         if (response == null) {
             return false;
         }
 
         races.clear();
-        for (int i = 0; i < response.length(); i++) {
-            final JSONObject o = response.optJSONObject(i);
-
-            try {
-                Date startTime = WebAPI.DATE_FORMAT_DOWNLOAD.parse(o.optString("start_time"));
-                Date finishTime = WebAPI.DATE_FORMAT_DOWNLOAD.parse(o.optString("finish_time"));
-
-                RaceItem item = new RaceItem(o.optInt("id"),
-                        o.optString("name_cs"),
-                        o.optString("name_en"),
-                        startTime,
-                        finishTime);
-
-                races.add(item);
-
-            } catch (ParseException e) {
-                e.printStackTrace();
-                return false;
-            }
+        for (RaceInfo race : response) {
+            races.add(new RaceItem(race.id,
+                    race.nameCS,
+                    race.nameEN,
+                    race.startTime,
+                    race.finishTime));
         }
 
         return true;
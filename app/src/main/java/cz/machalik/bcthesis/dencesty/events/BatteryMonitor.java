@@ -0,0 +1,101 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+
+/**
+ * Provides latest known battery state. It listens for battery changes once for the whole
+ * app process, so reading battery state is a plain memory read instead of IPC to the system
+ * on every {@link Event} creation.
+ *
+ * @author Lukáš Machalík
+ */
+public class BatteryMonitor extends BroadcastReceiver {
+
+    private static volatile BatteryMonitor instance = null;
+
+    /**
+     * Latest battery state, replaced as a whole on every change.
+     */
+    private volatile Snapshot snapshot = Snapshot.UNKNOWN;
+
+    /**
+     * Obtains battery monitor. On the first call it starts listening for battery changes.
+     * @param context any context, only application context is held
+     * @return battery monitor
+     */
+    public static BatteryMonitor get(Context context) {
+        BatteryMonitor monitor = instance;
+        if (monitor == null) {
+            synchronized (BatteryMonitor.class) {
+                monitor = instance;
+                if (monitor == null) {
+                    monitor = new BatteryMonitor();
+                    // Battery change is sticky broadcast, so current state is returned right away
+                    Intent batteryIntent = context.getApplicationContext().registerReceiver(monitor,
+                            new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+                    if (batteryIntent != null) {
+                        monitor.snapshot = Snapshot.fromIntent(batteryIntent);
+                    }
+                    instance = monitor;
+                }
+            }
+        }
+        return monitor;
+    }
+
+    /**
+     * Returns latest known battery state. It never blocks.
+     * @return battery state
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Called on battery change.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            this.snapshot = Snapshot.fromIntent(intent);
+        }
+    }
+
+    /**
+     * Immutable battery state.
+     */
+    public static class Snapshot {
+
+        static final Snapshot UNKNOWN = new Snapshot(-1, 0);
+
+        /**
+         * Battery level in percents, -1 if unknown.
+         */
+        public final int level;
+
+        /**
+         * Battery state in format for a server, see {@link WebAPI#convertBatteryStatus(int, int)}.
+         */
+        public final int state;
+
+        Snapshot(int level, int state) {
+            this.level = level;
+            this.state = state;
+        }
+
+        static Snapshot fromIntent(Intent batteryIntent) {
+            int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            int status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            int plugged = batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+            return new Snapshot((int) (((float)level / (float)scale) * 100.f),
+                                WebAPI.convertBatteryStatus(status, plugged));
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.Writer;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import cz.machalik.bcthesis.dencesty.webapi.DateCodec;
+
+/**
+ * Writes {@link EventBatch} in compact format. LocationUpdate Events are grouped by walker,
+ * race and location provider, so these fields are written only once per group. The rest of
+ * location fix fields are written as differences from the previous fix of the group, encoded
+ * in the style of Google encoded polyline algorithm. Other Events are written as is.
+ *
+ * <p>
+ * Format:
+ * <pre>
+ * {"format":"compact-1",
+ *  "events":[{Event}, ...],
+ *  "locations":[{"walkerId":1,"raceId":2,"provider":"gps","count":3,"fixes":"..."}, ...]}
+ * </pre>
+ *
+ * <p>
+ * Every fix in "fixes" is a sequence of {@link #FIELDS_COUNT} integers in this order:
+ * eventId, time [s], batL, batS, counter, timestamp [s], latitude [1e-6 deg],
+ * longitude [1e-6 deg], altitude [0.1 m], course [0.1 deg], speed [0.01 m/s], horAcc [0.1 m],
+ * verAcc [0.1 m], distance [m], avgSpeed [0.01 km/h], lastCheckpoint, offRouteCounter.
+ * Each value is a difference from the same field of the previous fix in group (the first fix
+ * from zero), zig-zag encoded and written in 5-bit chunks as characters 63-126.
+ *
+ * <p>
+ * Time and timestamp are seconds since the epoch (UTC). Time zone offset of the device,
+ * which is part of these fields in JSON format, is not sent, server shows them in its own
+ * time zone.
+ *
+ * <p>
+ * LocationUpdate Event which can not be written this way (eg. average speed is not known yet)
+ * is written as is among other Events.
+ *
+ * @author Lukáš Machalík
+ */
+final class CompactEventBatchWriter {
+
+    /**
+     * Identifier of format, server checks it.
+     */
+    public static final String FORMAT = "compact-1";
+
+    private static final int EVENT_ID = 0;
+    private static final int TIME = 1;
+    private static final int BATTERY_LEVEL = 2;
+    private static final int BATTERY_STATE = 3;
+    private static final int COUNTER = 4;
+    private static final int TIMESTAMP = 5;
+    private static final int LATITUDE = 6;
+    private static final int LONGITUDE = 7;
+    private static final int ALTITUDE = 8;
+    private static final int COURSE = 9;
+    private static final int SPEED = 10;
+    private static final int HOR_ACC = 11;
+    private static final int VER_ACC = 12;
+    private static final int DISTANCE = 13;
+    private static final int AVG_SPEED = 14;
+    private static final int LAST_CHECKPOINT = 15;
+    private static final int OFF_ROUTE_COUNTER = 16;
+    private static final int FIELDS_COUNT = 17;
+
+    // Bits of fields which are not delta encoded, to check all of them were present:
+    private static final int SEEN_WALKER_ID = 1 << FIELDS_COUNT;
+    private static final int SEEN_RACE_ID = 1 << (FIELDS_COUNT + 1);
+    private static final int SEEN_PROVIDER = 1 << (FIELDS_COUNT + 2);
+    private static final int SEEN_TYPE = 1 << (FIELDS_COUNT + 3);
+    private static final int SEEN_ALL = (1 << (FIELDS_COUNT + 4)) - 1;
+
+    private final List<String> plainEvents = new ArrayList<>();
+    private final Map<String, Group> groups = new LinkedHashMap<>();
+
+    /**
+     * Writes batch in compact format.
+     * @param batch Events to write
+     * @param writer destination, it is not flushed nor closed
+     * @throws IOException if writer fails
+     */
+    public void write(EventBatch batch, Writer writer) throws IOException {
+        plainEvents.clear();
+        groups.clear();
+
+        Fix fix = new Fix();
+        for (int i = 0; i < batch.size(); i++) {
+            String body = batch.getEventBody(i);
+            if (parseLocationFix(body, fix)) {
+                String key = fix.walkerId + "/" + fix.raceId + "/" + fix.provider;
+                Group group = groups.get(key);
+                if (group == null) {
+                    group = new Group(fix.walkerId, fix.raceId, fix.provider);
+                    groups.put(key, group);
+                }
+                group.add(fix.values);
+            } else {
+                plainEvents.add(body);
+            }
+        }
+
+        writer.write("{\"format\":\"" + FORMAT + "\",\"events\":[");
+        for (int i = 0; i < plainEvents.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(plainEvents.get(i));
+        }
+        writer.write("],\"locations\":[");
+        boolean isFirst = true;
+        for (Group group : groups.values()) {
+            if (!isFirst) {
+                writer.write(',');
+            }
+            isFirst = false;
+            group.writeTo(writer);
+        }
+        writer.write("]}");
+    }
+
+    /**
+     * Reads LocationUpdate Event from its JSON.
+     * @return false if it is not LocationUpdate Event or it can not be written in compact format
+     */
+    private boolean parseLocationFix(String body, Fix fix) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(body));
+        try {
+            int seen = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    return false;
+                }
+                switch (name) {
+                    case "eventId": seen |= put(fix, EVENT_ID, reader.nextLong()); break;
+                    case "walkerId": fix.walkerId = reader.nextInt(); seen |= SEEN_WALKER_ID; break;
+                    case "raceId": fix.raceId = reader.nextInt(); seen |= SEEN_RACE_ID; break;
+                    case "type":
+                        if (!Event.EVENTTYPE_LOCATIONUPDATE.equals(reader.nextString())) {
+                            return false;
+                        }
+                        seen |= SEEN_TYPE;
+                        break;
+                    case "data":
+                        int seenData = parseLocationData(reader, fix);
+                        if (seenData < 0) {
+                            return false;
+                        }
+                        seen |= seenData;
+                        break;
+                    case "batL": seen |= put(fix, BATTERY_LEVEL, reader.nextLong()); break;
+                    case "batS": seen |= put(fix, BATTERY_STATE, reader.nextLong()); break;
+                    case "time": seen |= put(fix, TIME, parseSeconds(reader.nextString())); break;
+                    default: return false;
+                }
+            }
+            reader.endObject();
+            return seen == SEEN_ALL;
+        } catch (ParseException | IllegalStateException | NumberFormatException e) {
+            return false;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads data object of LocationUpdate Event.
+     * @return bits of fields read or -1 if data can not be written in compact format
+     */
+    private int parseLocationData(JsonReader reader, Fix fix) throws IOException, ParseException {
+        int seen = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                return -1;
+            }
+            switch (name) {
+                case "latitude": seen |= put(fix, LATITUDE, fixed(reader.nextDouble(), 1e6)); break;
+                case "longitude": seen |= put(fix, LONGITUDE, fixed(reader.nextDouble(), 1e6)); break;
+                case "altitude": seen |= put(fix, ALTITUDE, fixed(reader.nextDouble(), 10)); break;
+                case "course": seen |= put(fix, COURSE, fixed(reader.nextDouble(), 10)); break;
+                case "speed": seen |= put(fix, SPEED, fixed(reader.nextDouble(), 100)); break;
+                case "horAcc": seen |= put(fix, HOR_ACC, fixed(reader.nextDouble(), 10)); break;
+                case "verAcc": seen |= put(fix, VER_ACC, fixed(reader.nextDouble(), 10)); break;
+                case "timestamp": seen |= put(fix, TIMESTAMP, parseSeconds(reader.nextString())); break;
+                case "counter": seen |= put(fix, COUNTER, reader.nextLong()); break;
+                case "provider": fix.provider = reader.nextString(); seen |= SEEN_PROVIDER; break;
+                case "distance": seen |= put(fix, DISTANCE, reader.nextLong()); break;
+                case "avgSpeed": seen |= put(fix, AVG_SPEED, fixed(reader.nextDouble(), 100)); break;
+                case "lastCheckpoint": seen |= put(fix, LAST_CHECKPOINT, reader.nextLong()); break;
+                case "offRouteCounter": seen |= put(fix, OFF_ROUTE_COUNTER, reader.nextLong()); break;
+                default: return -1;
+            }
+        }
+        reader.endObject();
+        return seen;
+    }
+
+    private static int put(Fix fix, int field, long value) {
+        fix.values[field] = value;
+        return 1 << field;
+    }
+
+    private static long fixed(double value, double scale) {
+        return Math.round(value * scale);
+    }
+
+    private static long parseSeconds(String time) throws ParseException {
+        return DateCodec.parseUpload(time) / 1000;
+    }
+
+    /**
+     * Appends signed number encoded in the style of Google encoded polyline algorithm.
+     */
+    private static void encodeSigned(long value, StringBuilder sb) {
+        long v = (value << 1) ^ (value >> 63); // zig-zag, small negative numbers stay small
+        while ((v & ~0x1fL) != 0) { // unsigned, zig-zag of a huge number has the top bit set
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+
+    /**
+     * Location fix read from Event JSON.
+     */
+    private static class Fix {
+        int walkerId;
+        int raceId;
+        String provider;
+        final long[] values = new long[FIELDS_COUNT];
+    }
+
+    /**
+     * Fixes with the same walker, race and provider.
+     */
+    private static class Group {
+        private final int walkerId;
+        private final int raceId;
+        private final String provider;
+        private final long[] previous = new long[FIELDS_COUNT];
+        private final StringBuilder fixes = new StringBuilder();
+        private int count = 0;
+
+        Group(int walkerId, int raceId, String provider) {
+            this.walkerId = walkerId;
+            this.raceId = raceId;
+            this.provider = provider;
+        }
+
+        void add(long[] values) {
+            for (int i = 0; i < FIELDS_COUNT; i++) {
+                encodeSigned(values[i] - previous[i], fixes);
+                previous[i] = values[i];
+            }
+            count++;
+        }
+
+        void writeTo(Writer writer) throws IOException {
+            writer.write("{\"walkerId\":" + walkerId +
+                         ",\"raceId\":" + raceId +
+                         ",\"provider\":" + JSONObject.quote(provider) +
+                         ",\"count\":" + count +
+                         ",\"fixes\":\"");
+            // Encoded characters are 63-126, only backslash has to be escaped in JSON string
+            for (int i = 0; i < fixes.length(); i++) {
+                char c = fixes.charAt(i);
+                if (c == '\\') {
+                    writer.write("\\\\");
+                } else {
+                    writer.write(c);
+                }
+            }
+            writer.write("\"}");
+        }
+    }
+}
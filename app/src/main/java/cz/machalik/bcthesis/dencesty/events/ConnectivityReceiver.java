@@ -0,0 +1,53 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+
+/**
+ * Listens for network connectivity changes. It lets {@link WebAPI} know whether there is
+ * any network, and when network becomes available it starts upload of unsent Events right away.
+ *
+ * @author Lukáš Machalík
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+    protected static final String TAG = "ConnectivityReceiver";
+
+    /**
+     * Starts listening for connectivity changes for the whole app process.
+     * @param context any context, only application context is held
+     */
+    public static void register(Context context) {
+        context.getApplicationContext().registerReceiver(new ConnectivityReceiver(),
+                new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Called on connectivity change.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (!ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+            return;
+        }
+
+        ConnectivityManager connectivityManager =
+                (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        boolean isConnected = networkInfo != null && networkInfo.isConnected();
+
+        Log.i(TAG, "Network connectivity changed, connected: " + isConnected);
+        WebAPI.onConnectivityChanged(isConnected);
+
+        // Sticky broadcast delivered on registration is not a change
+        if (isConnected && !isInitialStickyBroadcast()) {
+            EventUploaderService.performUpload(context);
+        }
+    }
+}
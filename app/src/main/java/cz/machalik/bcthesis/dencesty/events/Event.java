@@ -1,21 +1,15 @@
 package cz.machalik.bcthesis.dencesty.events;
 
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
-import android.os.BatteryManager;
-import android.preference.PreferenceManager;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import android.util.JsonWriter;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.Date;
+import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
-import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+import cz.machalik.bcthesis.dencesty.webapi.DateCodec;
 
 /**
  * Event represents a message which will be sended by {@link cz.machalik.bcthesis.dencesty.events.EventUploaderService} to a server.
@@ -58,11 +52,6 @@ public class Event implements Serializable {
      */
     private static final int UNKNOWN_RACE_ID = 0;
 
-    /**
-     * Used as key in SharedPreferences to remember current Event ID available.
-     */
-    private static final String EVENT_ID_COUNTER_KEY = "cz.machalik.bcthesis.dencesty.Event.eventIdCounter";
-
     // Event data:
     private final int eventId;
     private final int walkerId;
@@ -71,7 +60,7 @@ public class Event implements Serializable {
     private final int batteryLevel;
     private final int batteryState;
     private final String timestamp;
-    private final Map extras;
+    private Map extras = null;
 
     /**
      * Creates Event with unknown Race ID. Use it only when NO race is selected yet.
@@ -100,51 +89,125 @@ public class Event implements Serializable {
         this.type = type;
         this.walkerId = walkerId;
         this.raceId = raceId;
-        this.extras = new HashMap();
 
         // Obtain battery info:
-        Intent batteryIntent = context.getApplicationContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
-        int level = batteryIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-        int scale = batteryIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-        int status = batteryIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
-        int plugged = batteryIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
-        this.batteryLevel = (int) (((float)level / (float)scale) * 100.f);
-        this.batteryState = WebAPI.convertBatteryStatus(status, plugged);
+        BatteryMonitor.Snapshot battery = BatteryMonitor.get(context).getSnapshot();
+        this.batteryLevel = battery.level;
+        this.batteryState = battery.state;
 
         // Add unique timestamp
-        this.timestamp = WebAPI.DATE_FORMAT_UPLOAD.format(new Date());
-
-        // Obtain proper event id from shared preferences:
-        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
-        this.eventId = sharedPreferences.getInt(EVENT_ID_COUNTER_KEY, 0);
-        SharedPreferences.Editor editor = sharedPreferences.edit();
-        editor.putInt(EVENT_ID_COUNTER_KEY, this.eventId + 1);
-        editor.commit();
+        this.timestamp = DateCodec.formatUpload(System.currentTimeMillis());
+
+        // Obtain unique event id:
+        this.eventId = EventIdAllocator.get(context).nextId();
     }
 
     /**
-     * Converts Event to JSON representation.
+     * Converts Event to JSON representation without building JSON object tree.
      *
-     * @return JSON representation of Event object.
+     * @return JSON representation of Event as String.
      */
-    public JSONObject toJSONObject() {
-        JSONObject ret = new JSONObject();
-
+    public String toJSONString() {
+        StringWriter stringWriter = new StringWriter(256);
+        JsonWriter writer = new JsonWriter(stringWriter);
         try {
-            ret.put("eventId", eventId);
-            ret.put("walkerId", walkerId);
-            ret.put("raceId", raceId);
-            ret.put("type", type);
-            ret.put("data", new JSONObject(extras));
-            ret.put("batL", batteryLevel);
-            ret.put("batS", batteryState);
-            ret.put("time", timestamp);
-        } catch (JSONException e) {
+            writeJSON(writer);
+            writer.close();
+        } catch (IOException e) {
+            // StringWriter never throws
             e.printStackTrace();
-            return null;
         }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Writes Event in JSON representation to a stream.
+     *
+     * @param writer destination
+     * @throws IOException if writer fails
+     */
+    public void writeJSON(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("eventId").value(eventId);
+        writer.name("walkerId").value(walkerId);
+        writer.name("raceId").value(raceId);
+        writer.name("type").value(type);
+        writer.name("data");
+        writeData(writer);
+        writer.name("batL").value(batteryLevel);
+        writer.name("batS").value(batteryState);
+        writer.name("time").value(timestamp);
+        writer.endObject();
+    }
+
+    /**
+     * Writes Event data (extras) as JSON object.
+     *
+     * @param writer destination
+     * @throws IOException if writer fails
+     */
+    protected void writeData(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        if (extras != null) {
+            for (Object o : extras.entrySet()) {
+                Map.Entry entry = (Map.Entry) o;
+                writer.name(String.valueOf(entry.getKey()));
+                writeValue(writer, entry.getValue());
+            }
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes single extras value. Non finite numbers (eg. average speed at race start)
+     * are written as null, because JSON does not support them.
+     */
+    private static void writeValue(JsonWriter writer, Object value) throws IOException {
+        if (value == null) {
+            writer.nullValue();
+        } else if (value instanceof Boolean) {
+            writer.value((Boolean) value);
+        } else if (value instanceof Number) {
+            double d = ((Number) value).doubleValue();
+            if (Double.isNaN(d) || Double.isInfinite(d)) {
+                writer.nullValue();
+            } else {
+                writer.value((Number) value);
+            }
+        } else {
+            writer.value(value.toString());
+        }
+    }
 
-        return ret;
+    /**
+     * Writes number value, non finite number is written as null.
+     *
+     * @param writer destination
+     * @param value number
+     * @throws IOException if writer fails
+     */
+    protected static void writeNumber(JsonWriter writer, double value) throws IOException {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writer.nullValue();
+        } else {
+            writer.value(value);
+        }
+    }
+
+    /**
+     * Writes float number value in its shortest form (1.4 and not 1.399999976158142),
+     * non finite number is written as null.
+     *
+     * @param writer destination
+     * @param value number
+     * @throws IOException if writer fails
+     */
+    protected static void writeNumber(JsonWriter writer, float value) throws IOException {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            writer.nullValue();
+        } else {
+            writer.value(Float.valueOf(value));
+        }
     }
 
     /**
@@ -154,7 +217,7 @@ public class Event implements Serializable {
     @Override
     public String toString() {
         return "Event[" + walkerId + "," + raceId + "," + eventId + "] " + type + " " + timestamp + " " +
-                batteryLevel + " " + batteryState + " " + extras.toString();
+                batteryLevel + " " + batteryState + " " + (extras != null ? extras.toString() : "{}");
     }
 
     /**
@@ -165,12 +228,24 @@ public class Event implements Serializable {
         return eventId;
     }
 
+    /**
+     * Returns type of an Event.
+     * @return one of Event.EVENTTYPE_* constants
+     */
+    public String getType() {
+        return type;
+    }
+
     /**
      * Returns Map object with Event extras. Use it for storing additional data to Event
-     * based on Event type.
+     * based on Event type. Map is created on the first call, so Events without extras
+     * do not allocate it.
      * @return Event extras data structure.
      */
     public Map getExtras() {
+        if (extras == null) {
+            extras = new HashMap();
+        }
         return extras;
     }
 }
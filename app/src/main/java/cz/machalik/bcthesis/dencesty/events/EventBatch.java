@@ -0,0 +1,141 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * Chunk of queued Events prepared for upload. Events are held in their serialized JSON form
+ * as stored in {@link EventJournal}, so the batch is written to a request body as is,
+ * without building any intermediate JSON tree.
+ *
+ * @author Lukáš Machalík
+ */
+public class EventBatch {
+
+    private int[] ids;
+    private String[] bodies;
+    private int size = 0;
+    private int byteCount = 2; // array brackets
+
+    /**
+     * Creates empty batch.
+     * @param capacity expected number of Events
+     */
+    EventBatch(int capacity) {
+        this.ids = new int[capacity];
+        this.bodies = new String[capacity];
+    }
+
+    /**
+     * Appends serialized Event to batch.
+     * @param id Event ID
+     * @param body Event in JSON
+     */
+    void add(int id, String body) {
+        add(id, body, utf8Length(body));
+    }
+
+    /**
+     * Appends serialized Event to batch, with its already known size.
+     * @param id Event ID
+     * @param body Event in JSON
+     * @param bodyBytes size of body in UTF-8
+     */
+    void add(int id, String body, int bodyBytes) {
+        if (size == ids.length) {
+            int capacity = Math.max(16, size * 2);
+            ids = Arrays.copyOf(ids, capacity);
+            bodies = Arrays.copyOf(bodies, capacity);
+        }
+        if (size > 0) {
+            byteCount++; // separator
+        }
+        ids[size] = id;
+        bodies[size] = body;
+        byteCount += bodyBytes;
+        size++;
+    }
+
+    /**
+     * Returns number of Events in batch.
+     * @return Events count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns size of batch written as JSON array in UTF-8.
+     * @return size in bytes
+     */
+    public int getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Returns Event ID of Event at given position.
+     * @param index position in batch
+     * @return Event ID
+     */
+    public int getEventId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * Returns serialized Event at given position.
+     * @param index position in batch
+     * @return Event in JSON
+     */
+    public String getEventBody(int index) {
+        return bodies[index];
+    }
+
+    /**
+     * Writes batch as JSON array of Events.
+     * @param writer destination, it is not flushed nor closed
+     * @throws IOException if writer fails
+     */
+    public void writeTo(Writer writer) throws IOException {
+        writer.write('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(bodies[i]);
+        }
+        writer.write(']');
+    }
+
+    /**
+     * Writes batch in compact format with delta encoded location updates,
+     * see {@link CompactEventBatchWriter}.
+     * @param writer destination, it is not flushed nor closed
+     * @throws IOException if writer fails
+     */
+    public void writeCompactTo(Writer writer) throws IOException {
+        new CompactEventBatchWriter().write(this, writer);
+    }
+
+    /**
+     * Returns size of text encoded in UTF-8, without encoding it.
+     * @param text any text
+     * @return size in bytes
+     */
+    static int utf8Length(String text) {
+        int length = text.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x800) {
+                bytes += 2;
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++; // surrogate pair is 4 bytes
+                }
+            } else if (c >= 0x80) {
+                bytes += 1;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,95 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Allocates unique Event IDs with hi/lo scheme. Blocks of Event IDs are reserved with one
+ * persistent write per block and IDs inside the block are handed out from memory.
+ *
+ * <p>
+ * Shared preferences hold the end of the last reserved block. Every handed out Event ID is
+ * below this value, so after a crash allocation continues from it and Event IDs stay unique
+ * and monotonic (unused rest of the block is skipped).
+ *
+ * @author Lukáš Machalík
+ */
+class EventIdAllocator {
+
+    /**
+     * Number of Event IDs reserved with one persistent write.
+     */
+    public static final int BLOCK_SIZE = 100;
+
+    /**
+     * Used as key in SharedPreferences to remember the end of reserved Event IDs block
+     * (the first Event ID which is not reserved).
+     */
+    private static final String EVENT_ID_COUNTER_KEY = "cz.machalik.bcthesis.dencesty.Event.eventIdCounter";
+
+    private static volatile EventIdAllocator instance = null;
+
+    private final SharedPreferences sharedPreferences;
+    private final AtomicInteger nextId;
+    private volatile int blockEnd;
+
+    /**
+     * Obtains Event ID allocator.
+     * @param context any context, only application context is held
+     * @return Event ID allocator
+     */
+    public static EventIdAllocator get(Context context) {
+        EventIdAllocator allocator = instance;
+        if (allocator == null) {
+            synchronized (EventIdAllocator.class) {
+                allocator = instance;
+                if (allocator == null) {
+                    allocator = new EventIdAllocator(context);
+                    instance = allocator;
+                }
+            }
+        }
+        return allocator;
+    }
+
+    private EventIdAllocator(Context context) {
+        this.sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        this.blockEnd = sharedPreferences.getInt(EVENT_ID_COUNTER_KEY, 0);
+        this.nextId = new AtomicInteger(this.blockEnd);
+    }
+
+    /**
+     * Returns next unique Event ID. Only one call per block writes to persistent storage.
+     * @return Event ID
+     */
+    public int nextId() {
+        int id = nextId.getAndIncrement();
+        if (id >= blockEnd) {
+            reserveBlockFor(id);
+        }
+        return id;
+    }
+
+    /**
+     * Reserves blocks until given Event ID is covered. Event ID can not be handed out before
+     * its block is persisted.
+     */
+    private synchronized void reserveBlockFor(int id) {
+        if (id < blockEnd) {
+            return; // reserved by another thread meanwhile
+        }
+
+        int newBlockEnd = blockEnd;
+        while (id >= newBlockEnd) {
+            newBlockEnd += BLOCK_SIZE;
+        }
+
+        sharedPreferences.edit()
+                .putInt(EVENT_ID_COUNTER_KEY, newBlockEnd)
+                .commit();
+        blockEnd = newBlockEnd;
+    }
+}
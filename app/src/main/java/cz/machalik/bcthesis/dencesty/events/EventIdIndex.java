@@ -0,0 +1,254 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import java.util.Arrays;
+
+/**
+ * Insertion ordered set of Event IDs with O(1) append and O(1) removal by Event ID.
+ *
+ * <p>
+ * Event IDs are kept in a ring buffer in insertion order. Each Event ID is located in the ring
+ * by an open addressing (linear probing) hash map from Event ID to ring slot. Both structures
+ * are plain int arrays, so no boxing occurs.
+ *
+ * <p>
+ * This class is not thread safe, owner has to synchronize access.
+ *
+ * @author Lukáš Machalík
+ */
+class EventIdIndex {
+
+    /**
+     * Marks removed ring slot and empty map bucket. Event IDs are never negative.
+     */
+    private static final int FREE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Ring buffer of Event IDs in insertion order, FREE for removed entries.
+     */
+    private int[] ring;
+    private int head = 0;
+    private int used = 0; // occupied ring slots from head, including removed entries
+    private int size = 0; // number of Event IDs in set
+
+    /**
+     * Hash map buckets: Event ID and its ring slot (FREE for empty bucket).
+     */
+    private int[] keys;
+    private int[] slots;
+
+    /**
+     * Creates empty index.
+     * @param expectedSize expected number of Event IDs
+     */
+    public EventIdIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Appends Event ID at the end of index.
+     * @param id Event ID
+     * @return true if Event ID was added, false if it is negative or already present
+     */
+    public boolean add(int id) {
+        if (id < 0 || findBucket(id) >= 0) {
+            return false;
+        }
+
+        if (used == ring.length) {
+            rebuild(capacityFor(size + 1));
+        }
+
+        int slot = (head + used) & (ring.length - 1);
+        ring[slot] = id;
+        used++;
+        size++;
+        insertBucket(id, slot);
+        return true;
+    }
+
+    /**
+     * Removes Event ID from index.
+     * @param id Event ID
+     * @return true if Event ID was present
+     */
+    public boolean remove(int id) {
+        int bucket = findBucket(id);
+        if (bucket < 0) {
+            return false;
+        }
+
+        ring[slots[bucket]] = FREE;
+        deleteBucket(bucket);
+        size--;
+
+        // Release removed entries at the head of ring
+        while (used > 0 && ring[head] == FREE) {
+            head = (head + 1) & (ring.length - 1);
+            used--;
+        }
+        return true;
+    }
+
+    /**
+     * Removes all Event IDs in given range. Cost is bounded by the smaller of range length
+     * and index size, so a wide range (or a range of already removed Event IDs) is cheap.
+     * @param from the first Event ID
+     * @param to the last Event ID (inclusive)
+     * @return number of removed Event IDs
+     */
+    public int removeRange(int from, int to) {
+        if (to < from || size == 0) {
+            return 0;
+        }
+
+        int removed = 0;
+        if ((long) to - from + 1 <= size) {
+            for (long id = from; id <= to; id++) {
+                if (remove((int) id)) {
+                    removed++;
+                }
+            }
+            return removed;
+        }
+
+        // Range is wider than index, walk present Event IDs instead
+        int mask = ring.length - 1;
+        for (int i = 0; i < used; i++) {
+            int slot = (head + i) & mask;
+            int id = ring[slot];
+            if (id != FREE && id >= from && id <= to) {
+                ring[slot] = FREE;
+                deleteBucket(findBucket(id));
+                size--;
+                removed++;
+            }
+        }
+        while (used > 0 && ring[head] == FREE) {
+            head = (head + 1) & mask;
+            used--;
+        }
+        return removed;
+    }
+
+    /**
+     * Returns true if index contains given Event ID.
+     * @param id Event ID
+     * @return true if present
+     */
+    public boolean contains(int id) {
+        return findBucket(id) >= 0;
+    }
+
+    /**
+     * Returns the number of Event IDs in index.
+     * @return number of Event IDs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Removes all Event IDs.
+     */
+    public void clear() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /****************************** Private: ******************************/
+
+    /**
+     * Returns ring capacity (power of two) for given number of Event IDs.
+     */
+    private static int capacityFor(int count) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < count) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Allocates empty structures. Hash map has double capacity of ring,
+     * so it is at most half full.
+     */
+    private void allocate(int ringCapacity) {
+        ring = new int[ringCapacity];
+        keys = new int[ringCapacity * 2];
+        slots = new int[ringCapacity * 2];
+        Arrays.fill(slots, FREE);
+        head = 0;
+        used = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies present Event IDs to new structures, dropping removed entries.
+     */
+    private void rebuild(int minCapacity) {
+        int[] oldRing = ring;
+        int oldHead = head;
+        int oldUsed = used;
+
+        // Grow only if ring is more than half full with present Event IDs
+        int capacity = Math.max(minCapacity, size * 2 > oldRing.length ? oldRing.length * 2 : oldRing.length);
+        allocate(capacity);
+
+        for (int i = 0; i < oldUsed; i++) {
+            int id = oldRing[(oldHead + i) & (oldRing.length - 1)];
+            if (id != FREE) {
+                ring[used] = id;
+                insertBucket(id, used);
+                used++;
+                size++;
+            }
+        }
+    }
+
+    private int bucketOf(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    private int findBucket(int id) {
+        int mask = keys.length - 1;
+        for (int i = bucketOf(id); slots[i] != FREE; i = (i + 1) & mask) {
+            if (keys[i] == id) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insertBucket(int id, int slot) {
+        int mask = keys.length - 1;
+        int i = bucketOf(id);
+        while (slots[i] != FREE) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = id;
+        slots[i] = slot;
+    }
+
+    /**
+     * Deletes bucket and shifts following colliding entries back, so no tombstones are needed.
+     */
+    private void deleteBucket(int bucket) {
+        int mask = keys.length - 1;
+        int i = bucket;
+        slots[i] = FREE;
+
+        for (int j = (i + 1) & mask; slots[j] != FREE; j = (j + 1) & mask) {
+            int ideal = bucketOf(keys[j]);
+            // Entry at j may move to i only if its ideal bucket is not cyclically in (i, j]
+            boolean stays = (i <= j) ? (i < ideal && ideal <= j) : (i < ideal || ideal <= j);
+            if (!stays) {
+                keys[i] = keys[j];
+                slots[i] = slots[j];
+                slots[j] = FREE;
+                i = j;
+            }
+        }
+    }
+}
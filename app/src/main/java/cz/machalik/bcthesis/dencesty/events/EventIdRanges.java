@@ -0,0 +1,113 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import java.util.Arrays;
+
+/**
+ * Event IDs compressed to contiguous inclusive ranges. Event IDs are allocated in ascending
+ * order and a server saves them in order, so acknowledged Event IDs form few long ranges.
+ *
+ * @author Lukáš Machalík
+ */
+class EventIdRanges {
+
+    private int[] from = new int[4];
+    private int[] to = new int[4];
+    private int count = 0;
+    private long idsCount = 0;
+
+    /**
+     * Creates ranges from unordered list of Event IDs.
+     * @param ids Event IDs, array is not modified
+     * @return ranges covering exactly given Event IDs
+     */
+    static EventIdRanges fromIds(int[] ids) {
+        int[] sorted = ids.clone();
+        Arrays.sort(sorted);
+
+        EventIdRanges ranges = new EventIdRanges();
+        int i = 0;
+        while (i < sorted.length) {
+            int start = sorted[i];
+            int end = start;
+            i++;
+            while (i < sorted.length && sorted[i] <= (long) end + 1) {
+                end = sorted[i]; // duplicates are merged too
+                i++;
+            }
+            ranges.add(start, end);
+        }
+        return ranges;
+    }
+
+    /**
+     * Appends range of Event IDs.
+     * @param from the first Event ID
+     * @param to the last Event ID (inclusive)
+     */
+    void add(int from, int to) {
+        if (to < from) {
+            return;
+        }
+        if (count == this.from.length) {
+            this.from = Arrays.copyOf(this.from, count * 2);
+            this.to = Arrays.copyOf(this.to, count * 2);
+        }
+        this.from[count] = from;
+        this.to[count] = to;
+        this.count++;
+        this.idsCount += (long) to - from + 1;
+    }
+
+    /**
+     * Returns number of ranges.
+     * @return ranges count
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns number of Event IDs in all ranges.
+     * @return Event IDs count
+     */
+    long getIdsCount() {
+        return idsCount;
+    }
+
+    /**
+     * Returns the first Event ID of range.
+     * @param index range position
+     * @return Event ID
+     */
+    int getFrom(int index) {
+        return from[index];
+    }
+
+    /**
+     * Returns the last Event ID of range (inclusive).
+     * @param index range position
+     * @return Event ID
+     */
+    int getTo(int index) {
+        return to[index];
+    }
+
+    /**
+     * Return text representation of ranges, eg. [1-5, 8].
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(from[i]);
+            if (to[i] != from[i]) {
+                sb.append('-').append(to[i]);
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
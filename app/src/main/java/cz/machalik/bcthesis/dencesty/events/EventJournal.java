@@ -0,0 +1,231 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+/**
+ * Persistent journal of Events waiting for upload. It is backed by SQLite database, so unsent
+ * Events survive when Android kills the app process.
+ *
+ * <p>
+ * Events are stored in their JSON representation keyed by Event ID. Event ID is the primary key
+ * of the table, so appending and deleting by Event ID are both indexed operations. Every Event
+ * is stored with its priority lane (see {@link EventQueue#laneOf(String)}), Events are read
+ * lane by lane from the highest priority. Size of JSON in UTF-8 is stored too, so upload
+ * chunks are limited in bytes without encoding the Events again.
+ *
+ * @author Lukáš Machalík
+ */
+class EventJournal extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "events.db";
+    private static final int DATABASE_VERSION = 3;
+
+    private static final String TABLE_EVENTS = "events";
+    private static final String COLUMN_EVENT_ID = "event_id";
+    private static final String COLUMN_TYPE = "type";
+    private static final String COLUMN_BODY = "body";
+    private static final String COLUMN_LANE = "lane";
+    private static final String COLUMN_SIZE = "size";
+
+    /**
+     * Precompiled statements, reused for every append and delete.
+     */
+    private SQLiteStatement insertStatement;
+    private SQLiteStatement deleteStatement;
+    private SQLiteStatement deleteRangeStatement;
+
+    /**
+     * Opens (or creates) Event journal in application's private storage.
+     * @param context any context, only application context is held
+     */
+    public EventJournal(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Called when the database is created for the first time.
+     */
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_EVENTS + " (" +
+                COLUMN_EVENT_ID + " INTEGER PRIMARY KEY, " +
+                COLUMN_TYPE + " TEXT NOT NULL, " +
+                COLUMN_BODY + " TEXT NOT NULL, " +
+                COLUMN_LANE + " INTEGER NOT NULL DEFAULT " + EventQueue.LANE_NORMAL + ", " +
+                COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0)");
+        createLaneIndex(db);
+    }
+
+    /**
+     * Called when the database needs to be upgraded.
+     */
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            // Priority lanes, assigned to already journaled Events by their type
+            db.execSQL("ALTER TABLE " + TABLE_EVENTS + " ADD COLUMN " +
+                    COLUMN_LANE + " INTEGER NOT NULL DEFAULT " + EventQueue.LANE_NORMAL);
+            Cursor cursor = db.rawQuery("SELECT DISTINCT " + COLUMN_TYPE + " FROM " + TABLE_EVENTS, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String type = cursor.getString(0);
+                    db.execSQL("UPDATE " + TABLE_EVENTS + " SET " + COLUMN_LANE + " = ? WHERE " + COLUMN_TYPE + " = ?",
+                            new Object[] {EventQueue.laneOf(type), type});
+                }
+            } finally {
+                cursor.close();
+            }
+            createLaneIndex(db);
+        }
+        if (oldVersion < 3) {
+            // Size in UTF-8 of already journaled Events, text is stored in UTF-8
+            db.execSQL("ALTER TABLE " + TABLE_EVENTS + " ADD COLUMN " +
+                    COLUMN_SIZE + " INTEGER NOT NULL DEFAULT 0");
+            db.execSQL("UPDATE " + TABLE_EVENTS + " SET " + COLUMN_SIZE + " = LENGTH(CAST(" + COLUMN_BODY + " AS BLOB))");
+        }
+    }
+
+    /**
+     * Creates index for reading Events lane by lane.
+     */
+    private static void createLaneIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX " + TABLE_EVENTS + "_" + COLUMN_LANE + " ON " +
+                TABLE_EVENTS + " (" + COLUMN_LANE + ", " + COLUMN_EVENT_ID + ")");
+    }
+
+    /**
+     * Appends Event at the end of journal. Event already present in journal is ignored.
+     * @param event Event to append
+     * @param lane priority lane of Event
+     * @return true if Event was appended
+     */
+    public synchronized boolean append(Event event, int lane) {
+        if (insertStatement == null) {
+            insertStatement = getWritableDatabase().compileStatement(
+                    "INSERT OR IGNORE INTO " + TABLE_EVENTS + " (" +
+                            COLUMN_EVENT_ID + ", " + COLUMN_TYPE + ", " + COLUMN_BODY + ", " +
+                            COLUMN_LANE + ", " + COLUMN_SIZE + ") VALUES (?, ?, ?, ?, ?)");
+        }
+
+        String body = event.toJSONString();
+        insertStatement.bindLong(1, event.getEventId());
+        insertStatement.bindString(2, event.getType());
+        insertStatement.bindString(3, body);
+        insertStatement.bindLong(4, lane);
+        insertStatement.bindLong(5, EventBatch.utf8Length(body));
+        return insertStatement.executeInsert() != -1;
+    }
+
+    /**
+     * Deletes Events with given Event IDs in a single transaction.
+     * @param ids Event IDs to delete
+     * @param count number of Event IDs used from the beginning of ids array
+     * @return number of really deleted Events
+     */
+    public synchronized int delete(int[] ids, int count) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (deleteStatement == null) {
+            deleteStatement = db.compileStatement(
+                    "DELETE FROM " + TABLE_EVENTS + " WHERE " + COLUMN_EVENT_ID + " = ?");
+        }
+
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < count; i++) {
+                deleteStatement.bindLong(1, ids[i]);
+                deleted += deleteStatement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes Events in given Event ID ranges in a single transaction, one statement per range.
+     * @param ranges Event ID ranges to delete
+     * @return number of really deleted Events
+     */
+    public synchronized int delete(EventIdRanges ranges) {
+        SQLiteDatabase db = getWritableDatabase();
+        if (deleteRangeStatement == null) {
+            deleteRangeStatement = db.compileStatement(
+                    "DELETE FROM " + TABLE_EVENTS + " WHERE " + COLUMN_EVENT_ID + " BETWEEN ? AND ?");
+        }
+
+        int deleted = 0;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < ranges.size(); i++) {
+                deleteRangeStatement.bindLong(1, ranges.getFrom(i));
+                deleteRangeStatement.bindLong(2, ranges.getTo(i));
+                deleted += deleteRangeStatement.executeUpdateDelete();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return deleted;
+    }
+
+    /**
+     * Returns the number of Events in journal.
+     * @return number of Events
+     */
+    public synchronized int count() {
+        return (int) DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_EVENTS);
+    }
+
+    /**
+     * Opens cursor over Event IDs of all journaled Events in Event ID order. Column 0 is
+     * Event ID, column 1 is priority lane. Caller is responsible for closing the cursor.
+     * @return cursor over journaled Event IDs
+     */
+    public synchronized Cursor queryIds() {
+        return getReadableDatabase().query(TABLE_EVENTS,
+                new String[] {COLUMN_EVENT_ID, COLUMN_LANE},
+                null, null, null, null,
+                COLUMN_EVENT_ID + " ASC");
+    }
+
+    /**
+     * Opens cursor over journaled Events from the highest priority lane, the oldest first
+     * in each lane. Column 0 is Event ID, column 1 is Event body in JSON, column 2 is size
+     * of body in UTF-8. Caller is responsible for closing the cursor.
+     * @param limit maximum number of Events
+     * @return cursor over journaled Events
+     */
+    public synchronized Cursor queryFirst(int limit) {
+        return getReadableDatabase().query(TABLE_EVENTS,
+                new String[] {COLUMN_EVENT_ID, COLUMN_BODY, COLUMN_SIZE},
+                null, null, null, null,
+                COLUMN_LANE + " ASC, " + COLUMN_EVENT_ID + " ASC",
+                Integer.toString(limit));
+    }
+
+    /**
+     * Opens cursor over the oldest journaled Events of given priority lane after given Event ID,
+     * in Event ID order. Column 0 is Event ID, column 1 is Event body in JSON.
+     * Caller is responsible for closing the cursor.
+     * @param lane priority lane
+     * @param afterId only Events with greater Event ID are returned, 0 for all
+     * @param limit maximum number of Events
+     * @return cursor over journaled Events
+     */
+    public synchronized Cursor queryLane(int lane, int afterId, int limit) {
+        return getReadableDatabase().query(TABLE_EVENTS,
+                new String[] {COLUMN_EVENT_ID, COLUMN_BODY},
+                COLUMN_LANE + " = ? AND " + COLUMN_EVENT_ID + " > ?",
+                new String[] {Integer.toString(lane), Integer.toString(afterId)}, null, null,
+                COLUMN_EVENT_ID + " ASC",
+                Integer.toString(limit));
+    }
+}
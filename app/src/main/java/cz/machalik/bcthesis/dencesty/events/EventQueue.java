@@ -1,81 +1,268 @@
 package cz.machalik.bcthesis.dencesty.events;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
 
 /**
  * Queue that holds Events for upload to a server.
  *
+ * <p>
+ * It is a thin facade over persistent {@link EventJournal}, so queued Events are kept on disk
+ * (not on heap) and survive app process restarts. Only Event IDs are held in memory in
+ * {@link EventIdIndex}, so acknowledged Events are found and removed in constant time.
+ *
+ * <p>
+ * Events are divided to priority lanes by their type. Events from higher priority lane are
+ * always uploaded first, so race start or stop does not wait behind a large backlog
+ * of location updates.
+ *
+ * <p>
+ * Backlog of location updates is bounded. When it exceeds {@link #MAX_LOCATION_UPDATES},
+ * location updates are thinned by {@link TrajectoryThinner}, so the uploaded track keeps its
+ * shape and checkpoint passes. Each thinning takes the next window of the backlog, from the
+ * oldest location updates towards the newest ones, so no part is thinned again before
+ * the rest of the backlog. Events of other lanes are never dropped.
+ *
  * @author Lukáš Machalík
  */
 public class EventQueue {
+    protected static final String TAG = "EventQueue";
+
+    /**
+     * Lane of the highest priority: race start and stop, login and errors.
+     */
+    public static final int LANE_HIGH = 0;
+    /**
+     * Lane of warnings, logs and other Events.
+     */
+    public static final int LANE_NORMAL = 1;
+    /**
+     * Lane of the lowest priority: location updates.
+     */
+    public static final int LANE_LOW = 2;
+    /**
+     * Number of priority lanes.
+     */
+    public static final int LANES_COUNT = 3;
+
+    /**
+     * Maximum number of queued location updates, thinning of the oldest ones starts above it.
+     */
+    public static final int MAX_LOCATION_UPDATES = 10000;
+
+    /**
+     * Number of location updates thinned at once, about half of them is dropped.
+     */
+    public static final int THINNING_CHUNK_SIZE = 1000;
+
+    /**
+     * Persistent data structure.
+     */
+    private final EventJournal journal;
+
+    /**
+     * Event IDs of queued Events in insertion order, one index per priority lane.
+     */
+    private final EventIdIndex[] lanes = new EventIdIndex[LANES_COUNT];
+
+    /**
+     * Number of location updates which starts next thinning. It is raised if thinning can not
+     * drop enough location updates (all of them are mandatory), so it is not repeated
+     * for every added Event.
+     */
+    private int thinningThreshold = MAX_LOCATION_UPDATES;
 
     /**
-     * Data structure.
+     * Event ID of the last location update of previous thinning window, next thinning
+     * starts after it. It is 0 to start from the oldest location updates.
      */
-    private List<Event> queue;
+    private int thinningCursor = 0;
+
+    /**
+     * Opens EventQueue with Events remaining from previous runs.
+     * @param context any context, only application context is held
+     */
+    public EventQueue(Context context) {
+        this.journal = new EventJournal(context);
+        for (int i = 0; i < LANES_COUNT; i++) {
+            // Location updates are the most of journaled Events
+            this.lanes[i] = new EventIdIndex(i == LANE_LOW ? journal.count() : 16);
+        }
+
+        Cursor cursor = journal.queryIds();
+        try {
+            while (cursor.moveToNext()) {
+                lanes[cursor.getInt(1)].add(cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
 
     /**
-     * Creates new empty EventQueue.
+     * Returns priority lane for Events of given type.
+     * @param type one of Event.EVENTTYPE_* constants
+     * @return one of LANE_* constants
      */
-    public EventQueue() {
-        this.queue = new ArrayList<>();
+    public static int laneOf(String type) {
+        if (Event.EVENTTYPE_STARTRACE.equals(type) || Event.EVENTTYPE_STOPRACE.equals(type) ||
+                Event.EVENTTYPE_LOGIN.equals(type) || Event.EVENTTYPE_ERROR.equals(type)) {
+            return LANE_HIGH;
+        } else if (Event.EVENTTYPE_LOCATIONUPDATE.equals(type)) {
+            return LANE_LOW;
+        } else {
+            return LANE_NORMAL;
+        }
     }
 
     /**
-     * Adds Event at the end of this EventQueue.
+     * Adds Event at the end of its priority lane of this EventQueue.
      * @param event the Event to add.
      */
-    public void add(Event event) {
-        queue.add(event);
+    public synchronized void add(Event event) {
+        int lane = laneOf(event.getType());
+        if (!lanes[lane].contains(event.getEventId()) && journal.append(event, lane)) {
+            lanes[lane].add(event.getEventId());
+
+            if (lane == LANE_LOW && lanes[LANE_LOW].size() > thinningThreshold) {
+                thinLocationUpdates();
+            }
+        }
     }
 
     /**
-     * Removes the first occurrences of the specified Event IDs.
+     * Removes the Events with specified Event IDs. Unknown Event IDs are ignored.
      * @param ids array of Event IDs for remove
      */
-    public void remove(int[] ids) {
+    public synchronized void remove(int[] ids) {
+        // Keep only IDs present in queue, so journal is touched only for real Events
+        int[] present = new int[ids.length];
+        int count = 0;
         for (int id : ids) {
-            Event founded = null;
-            for (Event e : queue) {
-                if (e.getEventId() == id) {
-                    founded = e;
+            for (EventIdIndex lane : lanes) {
+                if (lane.remove(id)) {
+                    present[count++] = id;
                     break;
                 }
             }
-            if (founded != null) {
-                queue.remove(founded);
+        }
+
+        if (count > 0) {
+            journal.delete(present, count);
+        }
+    }
+
+    /**
+     * Drops redundant fixes from the next window of location updates. When the rest
+     * of the backlog after the previous window is shorter than a window, thinning starts
+     * over from the oldest location updates.
+     */
+    private void thinLocationUpdates() {
+        TrajectoryThinner thinner = readThinningWindow(thinningCursor);
+        if (thinner.size() < THINNING_CHUNK_SIZE && thinningCursor != 0) {
+            thinner = readThinningWindow(0);
+        }
+        thinningCursor = thinner.size() > 0 ? thinner.getLastId() : 0;
+
+        int[] redundant = thinner.selectRedundant(THINNING_CHUNK_SIZE / 2);
+        for (int id : redundant) {
+            lanes[LANE_LOW].remove(id);
+        }
+        journal.delete(redundant, redundant.length);
+
+        int size = lanes[LANE_LOW].size();
+        thinningThreshold = Math.max(MAX_LOCATION_UPDATES, size + THINNING_CHUNK_SIZE / 2);
+        Log.i(TAG, "Thinned location updates: dropped " + redundant.length + ", remaining " + size);
+    }
+
+    /**
+     * Reads window of location updates for thinning.
+     * @param afterId window starts after this Event ID, 0 for the oldest location updates
+     * @return thinner with location updates of the window
+     */
+    private TrajectoryThinner readThinningWindow(int afterId) {
+        TrajectoryThinner thinner = new TrajectoryThinner(THINNING_CHUNK_SIZE);
+        Cursor cursor = journal.queryLane(LANE_LOW, afterId, THINNING_CHUNK_SIZE);
+        try {
+            while (cursor.moveToNext()) {
+                thinner.add(cursor.getInt(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return thinner;
+    }
+
+    /**
+     * Removes the Events in specified Event ID ranges. Each range is removed from every lane
+     * and from persistent journal with one operation, its cost does not depend on range
+     * length. Unknown Event IDs are ignored.
+     * @param ranges Event ID ranges for remove
+     */
+    public synchronized void remove(EventIdRanges ranges) {
+        int removed = 0;
+        for (int i = 0; i < ranges.size(); i++) {
+            for (EventIdIndex lane : lanes) {
+                removed += lane.removeRange(ranges.getFrom(i), ranges.getTo(i));
             }
         }
+
+        if (removed > 0) {
+            journal.delete(ranges);
+        }
     }
 
     /**
      * Returns the number of elements in this EventQueue.
      * @return number of elements
      */
-    public int size() {
-        return queue.size();
+    public synchronized int size() {
+        int size = 0;
+        for (EventIdIndex lane : lanes) {
+            size += lane.size();
+        }
+        return size;
     }
 
     /**
-     * Converts EventQueue to JSON representation.
-     * @return JSON representation of EventQueue with Events in JSON
+     * Returns the number of elements in each priority lane.
+     * @return numbers of elements indexed by LANE_* constants
      */
-    public synchronized JSONArray toJSONArray() {
-        JSONArray array = new JSONArray();
+    public synchronized int[] laneSizes() {
+        int[] sizes = new int[LANES_COUNT];
+        for (int i = 0; i < LANES_COUNT; i++) {
+            sizes[i] = lanes[i].size();
+        }
+        return sizes;
+    }
 
-        Iterator<Event> it = queue.iterator();
-        while (it.hasNext()) {
-            Event event = it.next();
-            JSONObject jsonEvent = event.toJSONObject();
-            array.put(jsonEvent);
+    /**
+     * Returns chunk of Events prepared for upload, from the highest priority lane and the
+     * oldest ones in each lane. Events stay in queue until
+     * they are removed. Chunk always contains at least one Event (if queue is not empty),
+     * even if the Event alone exceeds maxBytes.
+     * @param maxEvents maximum number of Events in chunk
+     * @param maxBytes maximum size of chunk in JSON encoded in UTF-8
+     * @return chunk of the oldest Events
+     */
+    public synchronized EventBatch peek(int maxEvents, int maxBytes) {
+        EventBatch batch = new EventBatch(Math.min(maxEvents, size()));
+
+        Cursor cursor = journal.queryFirst(maxEvents);
+        try {
+            while (cursor.moveToNext()) {
+                int bodyBytes = cursor.getInt(2);
+                if (batch.size() > 0 && batch.getByteCount() + bodyBytes + 1 > maxBytes) {
+                    break;
+                }
+                batch.add(cursor.getInt(0), cursor.getString(1), bodyBytes);
+            }
+        } finally {
+            cursor.close();
         }
 
-        return array;
+        return batch;
     }
 
 }
@@ -3,7 +3,7 @@ package cz.machalik.bcthesis.dencesty.events;
 import android.app.IntentService;
 import android.content.Context;
 import android.content.Intent;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import org.json.JSONArray;
@@ -11,7 +11,11 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import cz.machalik.bcthesis.dencesty.model.User;
+import cz.machalik.bcthesis.dencesty.webapi.RequestMetrics;
 import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
@@ -39,21 +43,48 @@ public class EventUploaderService extends IntentService {
      * Intent action extra for event queue size.
      */
     public static final String EXTRA_EVENT_QUEUE_SIZE = "cz.machalik.bcthesis.dencesty.extra.EVENT_QUEUE_SIZE";
+    /**
+     * Intent action extra for event queue size of each priority lane (int array indexed
+     * by EventQueue.LANE_* constants).
+     */
+    public static final String EXTRA_EVENT_QUEUE_LANE_SIZES = "cz.machalik.bcthesis.dencesty.extra.EVENT_QUEUE_LANE_SIZES";
+
+    /**
+     * Maximum number of Events sent to a server in one request.
+     */
+    public static final int UPLOAD_CHUNK_MAX_EVENTS = 200;
+
+    /**
+     * Maximum size of Events in JSON sent to a server in one request (in bytes of UTF-8).
+     * Keeps requests small enough to succeed on slow connections.
+     */
+    public static final int UPLOAD_CHUNK_MAX_BYTES = 32 * 1024;
+
+    /**
+     * Interval of sending upload metrics to a server as Log Event.
+     */
+    public static final long METRICS_REPORT_INTERVAL_IN_MILLISECONDS = 30 * 60 * 1000;
 
 
     /****************************** Public API: ******************************/
 
     /**
-     * Starts this service to perform action AddEvent with the given Event. If
-     * the service is already performing a task this action will be queued.
+     * Adds the given Event to inbox of this service. The Event is handed over in memory
+     * and the service is started only to wake its thread up, which moves the Event to
+     * the persistent queue. Upload of the Event is scheduled automatically,
+     * see {@link UploadScheduler}.
      *
      * @see IntentService
      */
     public static void addEvent(Context context, Event event) {
-        Intent intent = new Intent(context, EventUploaderService.class);
-        intent.setAction(ACTION_ADD_EVENT);
-        intent.putExtra(EXTRA_EVENT, event);
-        context.startService(intent);
+        inbox.offer(event);
+        if (isWakeUpPending.compareAndSet(false, true)) {
+            Intent intent = new Intent(context, EventUploaderService.class);
+            intent.setAction(ACTION_DRAIN_INBOX);
+            context.startService(intent);
+        }
+
+        uploadScheduler.requestUpload(context, event.getType());
     }
 
     /**
@@ -68,6 +99,14 @@ public class EventUploaderService extends IntentService {
         context.startService(intent);
     }
 
+    /**
+     * Returns number of upload requests saved by coalescing uploads of added Events.
+     * @return saved upload requests count
+     */
+    public static int getSavedUploadRequestsCount() {
+        return uploadScheduler.getSavedRequests();
+    }
+
     /**
      * Returns current number of unsent Events.
      * @return event queue size
@@ -76,17 +115,59 @@ public class EventUploaderService extends IntentService {
         return eventQueueSize;
     }
 
+    /**
+     * Returns number of Events saved by a server since app start.
+     * @return uploaded events count
+     */
+    public static long getUploadedEventsCount() {
+        return uploadedEventsCount;
+    }
+
+    /**
+     * Returns current number of unsent Events in each priority lane.
+     * @return event queue sizes indexed by EventQueue.LANE_* constants
+     */
+    public static int[] getEventQueueLaneSizes() {
+        return eventQueueLaneSizes.clone();
+    }
+
 
     /****************************** Private: ******************************/
 
-    private static final String ACTION_ADD_EVENT = "cz.machalik.bcthesis.dencesty.action.ADD_EVENT";
+    private static final String ACTION_DRAIN_INBOX = "cz.machalik.bcthesis.dencesty.action.DRAIN_INBOX";
     private static final String ACTION_PERFORM_UPLOAD = "cz.machalik.bcthesis.dencesty.action.PERFORM_UPLOAD";
 
-    private static final String EXTRA_EVENT = "cz.machalik.bcthesis.dencesty.extra.EVENT";
+    /**
+     * Persistent queue of unsent Events. Opened by the first handled intent, see {@link #openEventQueue()}.
+     */
+    private static EventQueue eventQueue = null;
+
+    /**
+     * Latest queue sizes, written by this service's thread and read from any thread.
+     */
+    private static volatile int eventQueueSize = 0;
+
+    private static volatile int[] eventQueueLaneSizes = new int[EventQueue.LANES_COUNT];
 
-    private static EventQueue eventQueue = new EventQueue();
+    private static final QueueSizeBroadcaster queueSizeBroadcaster = new QueueSizeBroadcaster();
 
-    private static int eventQueueSize = 0;
+    private static volatile long uploadedEventsCount = 0;
+
+    private static long lastMetricsReportTime = 0; // in SystemClock.elapsedRealtime() time base
+
+    /**
+     * Events added by producers and not moved to persistent queue yet. It is lock-free queue,
+     * producers never block and only this service's thread consumes it.
+     */
+    private static final ConcurrentLinkedQueue<Event> inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * True if the service was already started to drain inbox and it has not begun yet.
+     * Producers adding Events meanwhile do not start the service again.
+     */
+    private static final AtomicBoolean isWakeUpPending = new AtomicBoolean(false);
+
+    private static final UploadScheduler uploadScheduler = new UploadScheduler();
 
     /**
      * Default constructor. Used by a IntentService internally.
@@ -101,89 +182,209 @@ public class EventUploaderService extends IntentService {
      */
     @Override
     protected void onHandleIntent(Intent intent) {
+        openEventQueue();
+
         if (intent != null) {
             final String action = intent.getAction();
-            if (ACTION_ADD_EVENT.equals(action)) {
-                final Event event = (Event) intent.getSerializableExtra(EXTRA_EVENT);
-                handleActionAddEvent(event);
+            if (ACTION_DRAIN_INBOX.equals(action)) {
+                handleActionDrainInbox();
             } else if (ACTION_PERFORM_UPLOAD.equals(action)) {
+                handleActionDrainInbox();
                 handleActionUpload();
             }
         }
     }
 
     /**
-     * Handle action AddEvent in the provided background thread with the provided
-     * parameters.
+     * Opens persistent Event queue with Events which remained unsent from previous runs,
+     * if it is not open yet. It reads the whole journal, so it is done on the service's
+     * thread and not in onCreate, which runs on the main thread.
      */
-    private void handleActionAddEvent(Event event) {
-        Log.i(TAG, "New event: " + event.toString());
+    private void openEventQueue() {
+        if (eventQueue == null) {
+            eventQueue = new EventQueue(getApplicationContext());
+            eventQueueSizeChanged();
+        }
+    }
 
-        eventQueue.add(event);
-        eventQueueSizeChanged();
+    /**
+     * Handle action DrainInbox in the provided background thread. Moves all Events from
+     * inbox to persistent queue.
+     */
+    private void handleActionDrainInbox() {
+        // Cleared before draining, so Event added after this point wakes the service again
+        isWakeUpPending.set(false);
+
+        boolean isAnyAdded = false;
+        Event event;
+        while ((event = inbox.poll()) != null) {
+            Log.i(TAG, "New event: " + event.toString());
+            eventQueue.add(event);
+            isAnyAdded = true;
+        }
+
+        if (isAnyAdded) {
+            eventQueueSizeChanged();
+        }
     }
 
     /**
-     * Handle action Upload in the provided background thread.
+     * Handle action Upload in the provided background thread. Events are sent in chunks
+     * from the oldest one, each acknowledged chunk is removed from queue immediately.
+     * If upload fails, retry is scheduled after backoff (or on network connectivity change,
+     * see {@link ConnectivityReceiver}).
      */
     private void handleActionUpload() {
-        if (eventQueue.size() > 0) {
-            JSONArray json = eventQueue.toJSONArray();
-            //Log.i(TAG, "JSON Request: " + json.toString());
-
-            JSONObject jsonResponse = WebAPI.synchronousEventHandlerRequest(json);
-            if (jsonResponse != null) {
-                //Log.i(TAG, "JSON Response: " + jsonResponse.toString());
-                JSONArray savedIdsJsonArray = jsonResponse.optJSONArray("savedEventIds");
-
-                if (savedIdsJsonArray != null) {
-                    try {
-
-                        int len = savedIdsJsonArray.length();
-                        int[] savedIds = new int[len];
-                        for (int i = 0; i < len; i++) {
-                            savedIds[i] = savedIdsJsonArray.getInt(i);
-                        }
-
-                        handleActionRemoveEvents(savedIds);
-
-                    } catch (JSONException e) {
-                        String message = "Event upload response: JSONException: " + e.getLocalizedMessage();
-                        Log.e(TAG, message);
-                        e.printStackTrace();
+        reportMetricsIfDue();
+
+        while (eventQueue.size() > 0) {
+            if (!uploadChunk()) {
+                scheduleRetry();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Adds Log Event with snapshot of upload metrics, if it was not sent recently.
+     */
+    private void reportMetricsIfDue() {
+        long now = SystemClock.elapsedRealtime();
+        if (lastMetricsReportTime != 0 && now - lastMetricsReportTime < METRICS_REPORT_INTERVAL_IN_MILLISECONDS) {
+            return;
+        }
+        if (!User.get().isLogged()) {
+            return;
+        }
+        if (lastMetricsReportTime == 0) {
+            lastMetricsReportTime = now; // nothing to report right after start
+            return;
+        }
+        lastMetricsReportTime = now;
+
+        Event event = new Event(this, User.get().getWalkerId(), Event.EVENTTYPE_LOG);
+        event.getExtras().put("metrics", RequestMetrics.getSnapshot());
+        event.getExtras().put("uploaded", uploadedEventsCount);
+        event.getExtras().put("queued", eventQueueSize);
+        addEvent(this, event);
+    }
+
+    /**
+     * Schedules retry of failed upload after backoff of Events upload endpoint.
+     */
+    private void scheduleRetry() {
+        long delay = WebAPI.getEventUploadRetryDelay();
+        if (delay <= 0) {
+            // Waiting for network connectivity, or upload did not fail on network
+            // (eg. user is not logged in), so retry would not help
+            return;
+        }
+        uploadScheduler.requestRetry(this, delay);
+    }
+
+    /**
+     * Uploads the oldest chunk of Events and removes saved Events from queue.
+     * @return true if some Events were saved by a server
+     */
+    private boolean uploadChunk() {
+        EventBatch batch = eventQueue.peek(UPLOAD_CHUNK_MAX_EVENTS, UPLOAD_CHUNK_MAX_BYTES);
+
+        JSONObject jsonResponse = WebAPI.synchronousEventHandlerRequest(batch);
+        if (jsonResponse == null) {
+            return false;
+        }
+
+        //Log.i(TAG, "JSON Response: " + jsonResponse.toString());
+        EventIdRanges savedRanges = parseSavedEventIds(jsonResponse);
+        if (savedRanges != null) {
+            int sizeBefore = eventQueue.size();
+            handleActionRemoveEvents(savedRanges);
+            uploadedEventsCount += sizeBefore - eventQueue.size();
+            return eventQueue.size() < sizeBefore;
+        } else {
+            String message = "Event upload response: Wrong response: " + jsonResponse.toString();
+            Log.e(TAG, message);
+        }
+
+        return false;
+    }
+
+    /**
+     * Reads saved Event IDs from upload response. Server sends either ranges
+     * "savedEventRanges": [[from, to], ...] (inclusive), or flat array "savedEventIds": [id, ...].
+     * Malformed ranges (from greater than to, missing or non-numeric bounds, negative Event ID)
+     * and malformed Event IDs are skipped, so the rest of acknowledgement is not lost.
+     * @return saved Event IDs as ranges, or null if response contains none of them
+     */
+    static EventIdRanges parseSavedEventIds(JSONObject jsonResponse) {
+        JSONArray savedRangesJsonArray = jsonResponse.optJSONArray("savedEventRanges");
+        if (savedRangesJsonArray != null) {
+            EventIdRanges ranges = new EventIdRanges();
+            int len = savedRangesJsonArray.length();
+            for (int i = 0; i < len; i++) {
+                JSONArray range = savedRangesJsonArray.optJSONArray(i);
+                try {
+                    if (range == null || range.length() != 2) {
+                        throw new JSONException("Range is not a pair");
                     }
-                } else {
-                    String message = "Event upload response: Wrong response: " + jsonResponse.toString();
-                    Log.e(TAG, message);
+                    int from = range.getInt(0);
+                    int to = range.getInt(1);
+                    if (from < 0 || from > to) {
+                        throw new JSONException("Range bounds are out of order");
+                    }
+                    ranges.add(from, to);
+                } catch (JSONException e) {
+                    Log.e(TAG, "Event upload response: Skipping malformed range " + savedRangesJsonArray.opt(i) + ": " + e.getLocalizedMessage());
                 }
             }
-        } else {
-            //Log.i(TAG, "Event queue upload failed: Queue is empty!");
+            return ranges;
         }
+
+        JSONArray savedIdsJsonArray = jsonResponse.optJSONArray("savedEventIds");
+        if (savedIdsJsonArray != null) {
+            int len = savedIdsJsonArray.length();
+            int[] savedIds = new int[len];
+            int count = 0;
+            for (int i = 0; i < len; i++) {
+                try {
+                    int id = savedIdsJsonArray.getInt(i);
+                    if (id < 0) {
+                        throw new JSONException("Negative Event ID");
+                    }
+                    savedIds[count++] = id;
+                } catch (JSONException e) {
+                    Log.e(TAG, "Event upload response: Skipping malformed Event ID " + savedIdsJsonArray.opt(i) + ": " + e.getLocalizedMessage());
+                }
+            }
+            return EventIdRanges.fromIds(count < len ? Arrays.copyOf(savedIds, count) : savedIds);
+        }
+
+        return null;
     }
 
     /**
      * Handle action RemoveEvents in the provided background thread with the provided
-     * Event IDs.
+     * Event ID ranges.
      */
-    private void handleActionRemoveEvents(int[] ids) {
-        String message = "Removing events: " + Arrays.toString(ids) +
-                         " Remaining count: " + (eventQueue.size()-ids.length); // beware, may be -1
+    private void handleActionRemoveEvents(EventIdRanges ranges) {
+        String message = "Removing events: " + ranges.toString() +
+                         " Remaining count: " + (eventQueue.size()-ranges.getIdsCount()); // beware, may be -1
         Log.i(TAG, message);
 
-        eventQueue.remove(ids);
+        eventQueue.remove(ranges);
         eventQueueSizeChanged();
     }
 
     /**
-     * Raises broadcast message about event queue size change.
+     * Raises broadcast message about event queue size change. Broadcasts are rate limited,
+     * see {@link QueueSizeBroadcaster}.
      */
     private void eventQueueSizeChanged() {
+        int[] laneSizes = eventQueue.laneSizes();
+        eventQueueLaneSizes = laneSizes;
         eventQueueSize = eventQueue.size();
 
-        Intent intent = new Intent(ACTION_EVENT_QUEUE_SIZE_CHANGED);
-        intent.putExtra(EXTRA_EVENT_QUEUE_SIZE, eventQueueSize);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+        queueSizeBroadcaster.queueSizeChanged(this, eventQueueSize, laneSizes);
     }
 
 }
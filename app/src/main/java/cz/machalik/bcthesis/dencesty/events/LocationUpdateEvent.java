@@ -0,0 +1,113 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+
+import cz.machalik.bcthesis.dencesty.webapi.DateCodec;
+
+/**
+ * Event of type LocationUpdate. Location data are held in primitive fields instead of
+ * generic extras map, so no boxed values are created for every location fix and memory
+ * size of the Event is fixed. Location time is formatted only when the Event is serialized.
+ *
+ * @author Lukáš Machalík
+ */
+public class LocationUpdateEvent extends Event {
+
+    private static final String UNKNOWN_PROVIDER = "notset";
+
+    private final double latitude;
+    private final double longitude;
+    private final double altitude;
+    private final float course;
+    private final float speed;
+    private final float horAcc;
+    private final float verAcc;
+    private final long locationTime;
+    private final int counter;
+    private final String provider;
+    private final int distance;
+    private final double avgSpeed;
+    private final int lastCheckpoint;
+    private final int offRouteCounter;
+
+    /**
+     * Creates LocationUpdate Event from location fix and current race progress.
+     *
+     * @param context A {@link Context} that will be used to construct the Event.
+     * @param walkerId Walker ID representing an owner of Event.
+     * @param raceId Race ID representing current race.
+     * @param location location fix
+     * @param counter sequence number of location update in race
+     * @param distance current race distance in meters
+     * @param avgSpeed current race average speed
+     * @param lastCheckpoint index of last visited checkpoint
+     * @param offRouteCounter number of location updates off the route
+     */
+    public LocationUpdateEvent(Context context, int walkerId, int raceId, Location location,
+                               int counter, int distance, double avgSpeed,
+                               int lastCheckpoint, int offRouteCounter) {
+        super(context, walkerId, raceId, EVENTTYPE_LOCATIONUPDATE);
+        this.latitude = location.getLatitude();
+        this.longitude = location.getLongitude();
+        this.altitude = location.hasAltitude() ? location.getAltitude() : -1;
+        this.course = location.hasBearing() ? location.getBearing() : -1;
+        this.speed = location.hasSpeed() ? location.getSpeed() : -1;
+        this.horAcc = location.hasAccuracy() ? location.getAccuracy() : -1;
+        this.verAcc = -1f; // Android does not provide vertical accuracy information
+        this.locationTime = location.getTime();
+        this.counter = counter;
+        this.provider = location.getProvider() != null ? location.getProvider() : UNKNOWN_PROVIDER;
+        this.distance = distance;
+        this.avgSpeed = avgSpeed;
+        this.lastCheckpoint = lastCheckpoint;
+        this.offRouteCounter = offRouteCounter;
+    }
+
+    /**
+     * Writes location data as JSON object with the same keys as generic extras used to have.
+     *
+     * @param writer destination
+     * @throws IOException if writer fails
+     */
+    @Override
+    protected void writeData(JsonWriter writer) throws IOException {
+        writer.beginObject();
+        writer.name("latitude");
+        writeNumber(writer, latitude);
+        writer.name("longitude");
+        writeNumber(writer, longitude);
+        writer.name("altitude");
+        writeNumber(writer, altitude);
+        writer.name("course");
+        writeNumber(writer, course);
+        writer.name("speed");
+        writeNumber(writer, speed);
+        writer.name("horAcc");
+        writeNumber(writer, horAcc);
+        writer.name("verAcc");
+        writeNumber(writer, verAcc);
+        writer.name("timestamp").value(DateCodec.formatUpload(locationTime));
+        writer.name("counter").value(counter);
+        writer.name("provider").value(provider);
+        writer.name("distance").value(distance);
+        writer.name("avgSpeed");
+        writeNumber(writer, avgSpeed);
+        writer.name("lastCheckpoint").value(lastCheckpoint);
+        writer.name("offRouteCounter").value(offRouteCounter);
+        writer.endObject();
+    }
+
+    /**
+     * Return text representation of Event.
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        return super.toString() + " " + counter + ' ' + provider + ' ' + latitude + ' ' +
+                longitude + ' ' + altitude + ' ' + speed + ' ' + course + ' ' + horAcc;
+    }
+}
@@ -0,0 +1,70 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.v4.content.LocalBroadcastManager;
+
+/**
+ * Rate limits broadcasts about Event queue size changes. Changes are coalesced, so at most
+ * one broadcast is sent per {@link #MIN_BROADCAST_INTERVAL_IN_MILLISECONDS}, and it always
+ * carries the latest queue size.
+ *
+ * @author Lukáš Machalík
+ */
+class QueueSizeBroadcaster {
+
+    /**
+     * Minimum time between two broadcasts.
+     */
+    public static final long MIN_BROADCAST_INTERVAL_IN_MILLISECONDS = 250;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable broadcastRunnable = new Runnable() {
+        @Override
+        public void run() {
+            broadcast();
+        }
+    };
+
+    private Context appContext = null;
+    private int queueSize = 0;
+    private int[] laneSizes = null;
+    private boolean isScheduled = false;
+    private long lastBroadcastTime = 0; // in SystemClock.uptimeMillis() time base
+
+    /**
+     * Notifies about queue size change. Broadcast is sent later, unless no broadcast
+     * was sent recently.
+     * @param context any context, only application context is held
+     * @param queueSize current queue size
+     * @param laneSizes current sizes of priority lanes
+     */
+    public synchronized void queueSizeChanged(Context context, int queueSize, int[] laneSizes) {
+        this.appContext = context.getApplicationContext();
+        this.queueSize = queueSize;
+        this.laneSizes = laneSizes;
+
+        if (!isScheduled) {
+            isScheduled = true;
+            long delay = lastBroadcastTime + MIN_BROADCAST_INTERVAL_IN_MILLISECONDS - SystemClock.uptimeMillis();
+            handler.postDelayed(broadcastRunnable, Math.max(0, delay));
+        }
+    }
+
+    /**
+     * Sends broadcast with the latest queue size.
+     */
+    private synchronized void broadcast() {
+        isScheduled = false;
+        lastBroadcastTime = SystemClock.uptimeMillis();
+
+        Intent intent = new Intent(EventUploaderService.ACTION_EVENT_QUEUE_SIZE_CHANGED);
+        intent.putExtra(EventUploaderService.EXTRA_EVENT_QUEUE_SIZE, queueSize);
+        intent.putExtra(EventUploaderService.EXTRA_EVENT_QUEUE_LANE_SIZES, laneSizes);
+        LocalBroadcastManager.getInstance(appContext).sendBroadcast(intent);
+    }
+}
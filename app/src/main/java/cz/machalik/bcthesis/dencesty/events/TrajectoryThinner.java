@@ -0,0 +1,310 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * Selects redundant location updates of a walker's track, so the queued backlog can be bounded
+ * without losing shape of the track. It uses Douglas-Peucker simplification with tolerance
+ * growing until the track is reduced enough.
+ *
+ * <p>
+ * The first and the last fix, fixes of other walker or race boundaries and fixes which mark
+ * checkpoint pass (last checkpoint changed) are always kept. Fixes which can not be read
+ * are kept too, but they have no position, so they split the track like a boundary
+ * and do not take part in simplification.
+ *
+ * @author Lukáš Machalík
+ */
+class TrajectoryThinner {
+
+    /**
+     * Initial Douglas-Peucker tolerance (in meters).
+     */
+    public static final double INITIAL_TOLERANCE_IN_METERS = 5;
+
+    /**
+     * Maximum Douglas-Peucker tolerance (in meters). If the track is still not reduced enough,
+     * every other fix is dropped, repeatedly.
+     */
+    public static final double MAX_TOLERANCE_IN_METERS = 320;
+
+    private static final double EARTH_RADIUS_IN_METERS = 6371000;
+
+    private final int[] ids;
+    private final double[] x;
+    private final double[] y;
+    private final boolean[] isMandatory;
+    private final boolean[] isReadable;
+    private final boolean[] isKept;
+    private int count = 0;
+
+    // Track of previous fix, to find checkpoint passes and track boundaries
+    private int previousTrack = 0;
+    private int previousCheckpoint = 0;
+    private boolean isPreviousReadable = true;
+    private double originLatitude = Double.NaN;
+    private double originCos = 1;
+
+    /**
+     * Creates empty thinner.
+     * @param capacity maximum number of fixes
+     */
+    TrajectoryThinner(int capacity) {
+        this.ids = new int[capacity];
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.isMandatory = new boolean[capacity];
+        this.isReadable = new boolean[capacity];
+        this.isKept = new boolean[capacity];
+    }
+
+    /**
+     * Appends LocationUpdate Event to the track, in Event ID order.
+     * @param id Event ID
+     * @param body Event in JSON
+     */
+    void add(int id, String body) {
+        ids[count] = id;
+
+        Fix fix = parse(body);
+        isReadable[count] = fix != null;
+        if (fix == null) {
+            isMandatory[count] = true;
+            if (count > 0) {
+                isMandatory[count - 1] = true; // end of track before unreadable fix
+            }
+        } else {
+            if (Double.isNaN(originLatitude)) {
+                originLatitude = fix.latitude;
+                originCos = Math.cos(Math.toRadians(fix.latitude));
+            }
+            // Equirectangular projection is accurate enough for distances along a race track
+            x[count] = Math.toRadians(fix.longitude) * originCos * EARTH_RADIUS_IN_METERS;
+            y[count] = Math.toRadians(fix.latitude - originLatitude) * EARTH_RADIUS_IN_METERS;
+
+            int track = fix.walkerId * 31 + fix.raceId;
+            isMandatory[count] = count == 0 || track != previousTrack || !isPreviousReadable ||
+                                 fix.lastCheckpoint != previousCheckpoint;
+            if (count > 0 && track != previousTrack) {
+                isMandatory[count - 1] = true; // end of previous track
+            }
+            previousTrack = track;
+            previousCheckpoint = fix.lastCheckpoint;
+        }
+        isPreviousReadable = fix != null;
+        count++;
+    }
+
+    /**
+     * Returns number of added fixes.
+     * @return number of fixes
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns Event ID of the last added fix.
+     * @return Event ID
+     */
+    int getLastId() {
+        return ids[count - 1];
+    }
+
+    /**
+     * Selects fixes to drop, so at most targetCount fixes remain (or only mandatory ones).
+     * @param targetCount wanted number of remaining fixes
+     * @return Event IDs of dropped fixes
+     */
+    int[] selectRedundant(int targetCount) {
+        if (count == 0) {
+            return new int[0];
+        }
+        isMandatory[count - 1] = true;
+
+        double tolerance = INITIAL_TOLERANCE_IN_METERS;
+        int kept = simplify(tolerance);
+        while (kept > targetCount && tolerance < MAX_TOLERANCE_IN_METERS) {
+            tolerance *= 2;
+            kept = simplify(tolerance);
+        }
+
+        // Track is too winding, drop every other fix until it is reduced enough
+        int mandatory = 0;
+        for (int i = 0; i < count; i++) {
+            if (isMandatory[i]) {
+                mandatory++;
+            }
+        }
+        boolean isOdd = false; // continues between passes, so the last droppable fix is dropped too
+        while (kept > targetCount && kept > mandatory) {
+            for (int i = 0; i < count && kept > targetCount; i++) {
+                if (isKept[i] && !isMandatory[i]) {
+                    if (isOdd) {
+                        isKept[i] = false;
+                        kept--;
+                    }
+                    isOdd = !isOdd;
+                }
+            }
+        }
+
+        int[] redundant = new int[count - kept];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (!isKept[i]) {
+                redundant[n++] = ids[i];
+            }
+        }
+        return redundant;
+    }
+
+    /**
+     * Marks kept fixes with Douglas-Peucker algorithm, run separately between each pair
+     * of mandatory fixes. Unreadable fix and its neighbours are mandatory, so segments ending
+     * at it have no inner fixes.
+     * @return number of kept fixes
+     */
+    private int simplify(double tolerance) {
+        int kept = 0;
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            isKept[i] = isMandatory[i];
+            if (isMandatory[i]) {
+                kept++;
+                if (i > start + 1 && isReadable[start] && isReadable[i]) {
+                    kept += simplifySegment(start, i, tolerance);
+                }
+                start = i;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Douglas-Peucker simplification between two kept fixes (exclusive), iterative to avoid
+     * deep recursion on long tracks.
+     * @return number of kept fixes inside segment
+     */
+    private int simplifySegment(int first, int last, double tolerance) {
+        int kept = 0;
+        int[] stack = new int[2 * (last - first + 1)];
+        int top = 0;
+        stack[top++] = first;
+        stack[top++] = last;
+
+        while (top > 0) {
+            int to = stack[--top];
+            int from = stack[--top];
+
+            double maxDistance = 0;
+            int farthest = -1;
+            for (int i = from + 1; i < to; i++) {
+                if (isMandatory[i]) {
+                    continue;
+                }
+                double distance = distanceToSegment(i, from, to);
+                if (distance > maxDistance) {
+                    maxDistance = distance;
+                    farthest = i;
+                }
+            }
+
+            if (farthest >= 0 && maxDistance > tolerance) {
+                isKept[farthest] = true;
+                kept++;
+                stack[top++] = from;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = to;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * Returns distance of fix from segment between two other fixes (in meters).
+     */
+    private double distanceToSegment(int i, int from, int to) {
+        double dx = x[to] - x[from];
+        double dy = y[to] - y[from];
+        double lengthSquared = dx * dx + dy * dy;
+        double t = lengthSquared > 0 ? ((x[i] - x[from]) * dx + (y[i] - y[from]) * dy) / lengthSquared : 0;
+        t = Math.max(0, Math.min(1, t));
+        double px = x[from] + t * dx - x[i];
+        double py = y[from] + t * dy - y[i];
+        return Math.sqrt(px * px + py * py);
+    }
+
+    /**
+     * Reads fields needed for thinning from LocationUpdate Event JSON.
+     * @return fix or null if Event can not be read
+     */
+    private static Fix parse(String body) {
+        Fix fix = new Fix();
+        int seen = 0;
+        JsonReader reader = new JsonReader(new StringReader(body));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                } else if ("walkerId".equals(name)) {
+                    fix.walkerId = reader.nextInt();
+                    seen |= 1;
+                } else if ("raceId".equals(name)) {
+                    fix.raceId = reader.nextInt();
+                    seen |= 2;
+                } else if ("data".equals(name)) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String dataName = reader.nextName();
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else if ("latitude".equals(dataName)) {
+                            fix.latitude = reader.nextDouble();
+                            seen |= 4;
+                        } else if ("longitude".equals(dataName)) {
+                            fix.longitude = reader.nextDouble();
+                            seen |= 8;
+                        } else if ("lastCheckpoint".equals(dataName)) {
+                            fix.lastCheckpoint = reader.nextInt();
+                            seen |= 16;
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            return null;
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // StringReader never throws
+            }
+        }
+        return seen == 31 ? fix : null;
+    }
+
+    /**
+     * Location fix fields needed for thinning.
+     */
+    private static class Fix {
+        int walkerId;
+        int raceId;
+        double latitude;
+        double longitude;
+        int lastCheckpoint;
+    }
+}
@@ -0,0 +1,109 @@
+package cz.machalik.bcthesis.dencesty.events;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Coalesces upload requests of newly added Events, so more Events are sent in one request
+ * and radio is not woken up for every single Event.
+ *
+ * <p>
+ * First request opens upload window. Upload is performed when the window expires, when
+ * the number of Events waiting in the window reaches threshold, or immediately for urgent
+ * Event types (start and stop of race). After failed upload, retry is scheduled.
+ *
+ * @author Lukáš Machalík
+ */
+class UploadScheduler {
+
+    /**
+     * Time window in which upload requests are coalesced into one upload.
+     */
+    public static final long UPLOAD_WINDOW_IN_MILLISECONDS = 60 * 1000;
+
+    /**
+     * Number of Events waiting in upload window which forces immediate upload.
+     */
+    public static final int UPLOAD_THRESHOLD_EVENTS = 20;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    private final Runnable retryRunnable = new Runnable() {
+        @Override
+        public void run() {
+            EventUploaderService.performUpload(appContext);
+        }
+    };
+
+    private Context appContext = null;
+    private boolean isScheduled = false;
+    private int pendingEvents = 0;
+    private int savedRequests = 0;
+
+    /**
+     * Requests upload of newly added Event.
+     * @param context any context, only application context is held
+     * @param eventType type of added Event
+     */
+    public synchronized void requestUpload(Context context, String eventType) {
+        this.appContext = context.getApplicationContext();
+        this.pendingEvents++;
+
+        if (isUrgent(eventType) || this.pendingEvents >= UPLOAD_THRESHOLD_EVENTS) {
+            flush();
+        } else if (!this.isScheduled) {
+            this.isScheduled = true;
+            handler.postDelayed(flushRunnable, UPLOAD_WINDOW_IN_MILLISECONDS);
+        }
+    }
+
+    /**
+     * Schedules retry of failed upload. Previously scheduled retry is replaced.
+     * @param context any context, only application context is held
+     * @param delayMillis delay of retry
+     */
+    public synchronized void requestRetry(Context context, long delayMillis) {
+        this.appContext = context.getApplicationContext();
+        handler.removeCallbacks(retryRunnable);
+        handler.postDelayed(retryRunnable, delayMillis);
+    }
+
+    /**
+     * Returns number of upload requests saved by coalescing so far.
+     * @return saved requests count
+     */
+    public synchronized int getSavedRequests() {
+        return savedRequests;
+    }
+
+    /**
+     * Performs upload of all Events waiting in upload window.
+     */
+    private synchronized void flush() {
+        handler.removeCallbacks(flushRunnable);
+        this.isScheduled = false;
+
+        if (this.pendingEvents == 0) {
+            return;
+        }
+
+        this.savedRequests += this.pendingEvents - 1;
+        this.pendingEvents = 0;
+        EventUploaderService.performUpload(this.appContext);
+    }
+
+    /**
+     * Returns true for Event types which have to be sent to a server without delay.
+     */
+    private static boolean isUrgent(String eventType) {
+        return Event.EVENTTYPE_STARTRACE.equals(eventType) || Event.EVENTTYPE_STOPRACE.equals(eventType);
+    }
+}
@@ -10,16 +10,10 @@ import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.text.ParseException;
-import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
 
 import cz.machalik.bcthesis.dencesty.R;
-import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
+import cz.machalik.bcthesis.dencesty.webapi.RaceData;
 
 /**
  * Model for calculating elapsed distance on a race route. It also calculates average speed and
@@ -69,44 +63,21 @@ public class DistanceModel {
     }
 
     /**
-     * Init DistanceModel with JSON data from a server. It is suitable to run this method
+     * Init DistanceModel with race data from a server. It is suitable to run this method
      * from background thread (eg. download thread).
-     * @param data distance model data from a server
+     * @param data race data from a server
      */
-    public void init(JSONObject data) {
-        final JSONObject raceInfo = data.optJSONObject("race");
-        this.startTime = null;
-        try {
-            this.startTime = WebAPI.DATE_FORMAT_DOWNLOAD.parse(raceInfo.optString("start_time"));
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return;
-        }
+    public void init(RaceData data) {
+        this.startTime = data.race.startTime;
 
-        final JSONObject scoreboard = data.optJSONObject("scoreboard");
-        if (scoreboard != null) {
-            this.distance = scoreboard.optInt("distance");
-            this.avgSpeed = scoreboard.optDouble("avgSpeed");
-            this.lastCheckpoint = scoreboard.optInt("lastCheckpoint");
+        if (data.hasScoreboard) {
+            this.distance = data.distance;
+            this.avgSpeed = data.avgSpeed;
+            this.lastCheckpoint = data.lastCheckpoint;
         }
 
-        // Process race_checkpoints:
-        final JSONArray raceCheckpoints = data.optJSONArray("checkpoints");
-        this.checkpoints = new Checkpoint[raceCheckpoints.length()];
-        for (int i = 0; i < raceCheckpoints.length(); i++) {
-            final JSONObject o = raceCheckpoints.optJSONObject(i);
-            checkpoints[i] = new Checkpoint(o.optInt("checkid"),
-                    o.optInt("meters"),
-                    o.optDouble("latitude"),
-                    o.optDouble("longitude"));
-        }
-
-        Arrays.sort(this.checkpoints, new Comparator<Checkpoint>() {
-            @Override
-            public int compare(Checkpoint lhs, Checkpoint rhs) {
-                return lhs.id - rhs.id;
-            }
-        });
+        // Race route is already sorted by check ID
+        this.checkpoints = data.checkpoints;
     }
 
     /**
@@ -10,16 +10,15 @@ import android.location.Location;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
-import org.json.JSONObject;
-
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import cz.machalik.bcthesis.dencesty.R;
 import cz.machalik.bcthesis.dencesty.events.Event;
 import cz.machalik.bcthesis.dencesty.events.EventUploaderService;
+import cz.machalik.bcthesis.dencesty.events.LocationUpdateEvent;
 import cz.machalik.bcthesis.dencesty.location.BackgroundLocationService;
+import cz.machalik.bcthesis.dencesty.webapi.RaceData;
 import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
@@ -59,30 +58,24 @@ public class RaceModel {
      * @param raceId Race ID of race
      */
     public boolean init(Context context, int raceId) {
-        JSONObject response = WebAPI.synchronousRaceDataRequest(raceId, User.get().getWalkerId());
+        RaceData response = WebAPI.synchronousRaceDataRequest(raceId, User.get().getWalkerId());
+        return init(context, response);
+    }
 
-        if (response == null || !response.has("race") || !response.has("checkpoints")) {
+    /**
+     * Init RaceModel with race data response from a server. Restarts race, if it is in progress
+     * on a server.
+     * @param response race data response, may be null
+     * @return true if response was valid
+     */
+    public boolean init(Context context, RaceData response) {
+        if (!parseRaceData(response)) {
             return false;
         }
 
-        // Process race_info:
-        final JSONObject raceInfo = response.optJSONObject("race");
-        this.raceId = raceInfo.optInt("id");
-        this.startTime = null;
-        this.finishTime = null;
-        try {
-            this.startTime = WebAPI.DATE_FORMAT_DOWNLOAD.parse(raceInfo.optString("start_time"));
-            this.finishTime = WebAPI.DATE_FORMAT_DOWNLOAD.parse(raceInfo.optString("finish_time"));
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
-
-        this.distanceModel.init(response);
-
         // Process scoreboard:
-        final JSONObject scoreboard = response.optJSONObject("scoreboard");
-        if (scoreboard != null && scoreboard.length() > 0) {
-            this.isStarted = (1 == scoreboard.optInt("raceState"));
+        if (response.hasScoreboard) {
+            this.isStarted = (1 == response.raceState);
 
             if (this.isStarted) {
                 if (isRaceAbleToStart()) {
@@ -92,7 +85,6 @@ public class RaceModel {
                     Event event = new Event(context, User.get().getWalkerId(), this.raceId, Event.EVENTTYPE_LOG);
                     event.getExtras().put("msg", "Restarting race automatically");
                     EventUploaderService.addEvent(context, event);
-                    EventUploaderService.performUpload(context);
 
                     startLocationService(context);
                 } else {
@@ -108,6 +100,38 @@ public class RaceModel {
         return true;
     }
 
+    /**
+     * Init RaceModel with race data cached from the last successful request, without any request
+     * to a server. Race state in cached data may be outdated, so race is never restarted,
+     * call {@link #update(Context, RaceData)} with fresh data then.
+     * Run this method from background thread.
+     * @param raceId Race ID of race
+     * @return true if race data were cached
+     */
+    public boolean initFromCache(Context context, int raceId) {
+        RaceData response = WebAPI.getCachedRaceData(raceId, User.get().getWalkerId());
+        this.isStarted = false;
+        return parseRaceData(response);
+    }
+
+    /**
+     * Updates RaceModel initialized from cache with fresh race data response from a server.
+     * Nothing is changed if user already started race meanwhile.
+     * @param response race data response
+     * @return true if RaceModel was updated
+     */
+    public boolean update(Context context, RaceData response) {
+        if (this.isStarted) {
+            return false;
+        }
+
+        boolean isUpdated = init(context, response);
+        if (isUpdated) {
+            notifySomeRaceInfoChanged(context);
+        }
+        return isUpdated;
+    }
+
     /**
      * Starts race and starts capturing location.
      * May fail and show alert dialog when time is before official start time or race time is over.
@@ -123,7 +147,6 @@ public class RaceModel {
                 Event event = new Event(context, User.get().getWalkerId(), this.raceId, Event.EVENTTYPE_STARTRACE);
                 event.getExtras().put("updateInterval", BackgroundLocationService.UPDATE_INTERVAL_IN_MILLISECONDS);
                 EventUploaderService.addEvent(context, event);
-                EventUploaderService.performUpload(context);
 
                 startLocationService(context);
 
@@ -177,7 +200,6 @@ public class RaceModel {
             //if (wasRunning) {
                 Event event = new Event(context, User.get().getWalkerId(), this.raceId, Event.EVENTTYPE_STOPRACE);
                 EventUploaderService.addEvent(context, event);
-                EventUploaderService.performUpload(context);
             //}
 
             LocalBroadcastManager.getInstance(context).unregisterReceiver(mLocationChangedReceiver);
@@ -309,6 +331,24 @@ public class RaceModel {
      */
     private boolean showEndRaceAlert = false;
 
+    /**
+     * Reads race info and route from race data response.
+     * @return false if response is not valid
+     */
+    private boolean parseRaceData(RaceData response) {
+        if (response == null) {
+            return false;
+        }
+
+        // Process race_info:
+        this.raceId = response.race.id;
+        this.startTime = response.race.startTime;
+        this.finishTime = response.race.finishTime;
+
+        this.distanceModel.init(response);
+        return true;
+    }
+
     /**
      * Starts capturing location updates.
      */
@@ -354,43 +394,11 @@ public class RaceModel {
      * Creates and sends new Event of type LocationUpdate to server.
      */
     private void fireLocationUpdateEvent(Context context, Location location) {
-        Float course = location.hasBearing() ? location.getBearing() : -1;
-        Double altitude = location.hasAltitude() ? location.getAltitude() : -1;
-        Integer counter = locationUpdatesCounter++;
-        Float speed = location.hasSpeed() ? location.getSpeed() : -1;
-        Float verAcc = -1f; // Android does not provide vertical accuracy information
-        Double latitude = location.getLatitude();
-        Double longitude = location.getLongitude();
-        Float horAcc = location.hasAccuracy() ? location.getAccuracy() : -1;
-        String provider = location.getProvider() != null ? location.getProvider() : "notset";
-
-        Date date = new Date(location.getTime());
-        String timestamp = WebAPI.DATE_FORMAT_UPLOAD.format(date);
-
-        /*String info = "Location changed: " + counter + ' ' + provider + ' ' + latitude + ' ' +
-                longitude + ' ' + altitude + ' ' + speed + ' ' + course + ' ' + horAcc +
-                ' ' + verAcc + ' ' + timestamp;
-        //Log.i(TAG, info);
-        FileLogger.log(TAG, info);*/
-
-        Event event = new Event(context, User.get().getWalkerId(), this.raceId, Event.EVENTTYPE_LOCATIONUPDATE);
-        event.getExtras().put("latitude", latitude);
-        event.getExtras().put("longitude", longitude);
-        event.getExtras().put("altitude", altitude);
-        event.getExtras().put("course", course);
-        event.getExtras().put("speed", speed);
-        event.getExtras().put("horAcc", horAcc);
-        event.getExtras().put("verAcc", verAcc);
-        event.getExtras().put("timestamp", timestamp);
-        event.getExtras().put("counter", counter);
-        event.getExtras().put("provider", provider);
-        event.getExtras().put("distance", getRaceDistance());
-        event.getExtras().put("avgSpeed", getRaceAvgSpeed());
-        event.getExtras().put("lastCheckpoint", distanceModel.getLastCheckpoint());
-        event.getExtras().put("offRouteCounter", distanceModel.getOffRouteUpdatesCounter());
+        Event event = new LocationUpdateEvent(context, User.get().getWalkerId(), this.raceId,
+                location, locationUpdatesCounter++, getRaceDistance(), getRaceAvgSpeed(),
+                distanceModel.getLastCheckpoint(), distanceModel.getOffRouteUpdatesCounter());
 
         EventUploaderService.addEvent(context, event);
-        EventUploaderService.performUpload(context);
     }
 
     /**
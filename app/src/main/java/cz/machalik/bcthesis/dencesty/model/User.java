@@ -66,6 +66,38 @@ public class User {
         }
     }
 
+    /**
+     * Returns true if there is a session from previous login which can be used right away,
+     * without waiting for a server. Its credentials should be revalidated
+     * by {@link #revalidateSession(Context)} on background.
+     * @return true if user is logged and his credentials are saved
+     */
+    public boolean hasCachedSession(Context context) {
+        return isLogged() && hasSavedCredentials(context);
+    }
+
+    /**
+     * Revalidates cached session with saved credentials. Connection error keeps the session,
+     * so the app can be used offline. Rejected credentials end the session, but a started race
+     * is not interrupted, it keeps its session until it is stopped.
+     * Never call it from the main thread.
+     * @return {@link cz.machalik.bcthesis.dencesty.model.User.LoginResult}
+     */
+    public LoginResult revalidateSession(Context context) {
+        LoginResult result = attemptLogin(context, getSavedCredentialsEmail(context), getSavedCredentialsPassword(context));
+
+        if (result == LoginResult.CONNECTION_ERROR) {
+            Log.i(TAG, "Session revalidation failed, keeping cached session");
+        } else if (result == LoginResult.FAILED) {
+            RaceModel raceModel = MyApplication.get().getRaceModel();
+            if (raceModel == null || !raceModel.isStarted()) {
+                setLogged(context, false);
+            }
+        }
+
+        return result;
+    }
+
     /**
      * Logs out current user and removes his credentials.
      */
@@ -254,7 +286,6 @@ public class User {
         event.getExtras().put("appVersion", BuildConfig.VERSION_NAME);
 
         EventUploaderService.addEvent(context, event);
-        EventUploaderService.performUpload(context);
     }
 
     /**
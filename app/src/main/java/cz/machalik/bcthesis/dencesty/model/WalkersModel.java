@@ -3,14 +3,10 @@ package cz.machalik.bcthesis.dencesty.model;
 import android.content.Context;
 import android.content.Intent;
 import android.support.v4.content.LocalBroadcastManager;
-import android.util.Log;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
-
-import java.text.ParseException;
 import java.util.Date;
 
+import cz.machalik.bcthesis.dencesty.webapi.Scoreboard;
 import cz.machalik.bcthesis.dencesty.webapi.WebAPI;
 
 /**
@@ -38,10 +34,10 @@ public class WalkersModel {
      * @return true if success
      */
     public boolean fetchWalkersFromWeb(Context context) {
-        JSONObject jsonResponse = WebAPI.synchronousWalkersListRequest(this.raceId, User.get().getWalkerId());
+        Scoreboard response = WebAPI.synchronousWalkersListRequest(this.raceId, User.get().getWalkerId());
 
-        if (jsonResponse != null) {
-            initializeWalkers(jsonResponse);
+        if (response != null) {
+            initializeWalkers(response);
             notifyWalkersDidRefreshed(context);
             return true;
         }
@@ -133,63 +129,22 @@ public class WalkersModel {
 
     /**
      * Walkers model initialization from server data.
-     * @param jsonData
+     * @param scoreboard
      */
-    private void initializeWalkers(JSONObject jsonData) {
-        if (!jsonData.has("distance") || !jsonData.has("speed") || !jsonData.has("numWalkersAhead") ||
-                !jsonData.has("numWalkersBehind") || !jsonData.has("numWalkersEnded") ||
-                !jsonData.has("walkersAhead") || !jsonData.has("walkersBehind")) {
-            String message = "Response RaceInfo missing some entries";
-            Log.e(TAG, message);
-            return;
-        }
-
-        try {
-            Date presentWalkerUpdatedAt = null;
-            if (jsonData.has("updated_at")) {
-                presentWalkerUpdatedAt = WebAPI.DATE_FORMAT_DOWNLOAD.parse(jsonData.optString("updated_at"));
-            }
-
-            presentWalker = new Walker(User.get().getWalkerFullName(),
-                    jsonData.optInt("distance"),
-                    jsonData.optDouble("speed"),
-                    jsonData.optInt("raceState"),
-                    jsonData.optDouble("latitude", 0),
-                    jsonData.optDouble("longitude", 0),
-                    presentWalkerUpdatedAt);
-
-            numWalkersAhead = jsonData.optInt("numWalkersAhead");
-            numWalkersBehind = jsonData.optInt("numWalkersBehind");
-            numWalkersEnded = jsonData.optInt("numWalkersEnded");
-
-            final JSONArray walkersAheadJsonArray = jsonData.optJSONArray("walkersAhead");
-            walkersAhead = new Walker[walkersAheadJsonArray.length()];
-            for (int i = 0; i < walkersAheadJsonArray.length(); i++) {
-                final JSONObject o = walkersAheadJsonArray.optJSONObject(i);
-                walkersAhead[i] = new Walker(o.optString("name"),
-                                             o.optInt("distance"),
-                                             o.optDouble("speed"),
-                                             o.optInt("raceState"),
-                                             o.optDouble("latitude", 0),
-                                             o.optDouble("longitude", 0),
-                                             WebAPI.DATE_FORMAT_DOWNLOAD.parse(o.optString("updated_at")));
-            }
-
-            final JSONArray walkersBehindJsonArray = jsonData.optJSONArray("walkersBehind");
-            walkersBehind = new Walker[walkersBehindJsonArray.length()];
-            for (int i = 0; i < walkersBehindJsonArray.length(); i++) {
-                final JSONObject o = walkersBehindJsonArray.optJSONObject(i);
-                walkersBehind[i] = new Walker(o.optString("name"),
-                                              o.optInt("distance"),
-                                              o.optDouble("speed"),
-                                              o.optInt("raceState"),
-                                              o.optDouble("latitude", 0),
-                                              o.optDouble("longitude", 0),
-                                              WebAPI.DATE_FORMAT_DOWNLOAD.parse(o.optString("updated_at")));
-            }
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+    private void initializeWalkers(Scoreboard scoreboard) {
+        presentWalker = new Walker(User.get().getWalkerFullName(),
+                scoreboard.distance,
+                scoreboard.avgSpeed,
+                scoreboard.raceState,
+                scoreboard.latitude,
+                scoreboard.longitude,
+                scoreboard.updatedAt);
+
+        numWalkersAhead = scoreboard.numWalkersAhead;
+        numWalkersBehind = scoreboard.numWalkersBehind;
+        numWalkersEnded = scoreboard.numWalkersEnded;
+        walkersAhead = scoreboard.walkersAhead;
+        walkersBehind = scoreboard.walkersBehind;
     }
 
     /**
@@ -0,0 +1,39 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream which counts bytes written through it.
+ *
+ * @author Lukáš Machalík
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+    private long count = 0;
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Returns number of bytes written so far.
+     * @return bytes count
+     */
+    long getCount() {
+        return count;
+    }
+}
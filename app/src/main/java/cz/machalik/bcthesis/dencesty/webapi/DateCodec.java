@@ -0,0 +1,238 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import java.text.ParseException;
+import java.util.TimeZone;
+
+/**
+ * Formats and parses dates in the two fixed formats used by a server, working on epoch millis.
+ * It replaces shared {@link java.text.SimpleDateFormat} instances, which are not safe to use from
+ * multiple threads at once and allocate a lot. All methods are safe to call from any thread,
+ * they allocate only the returned String.
+ *
+ * <ul>
+ * <li>Upload format {@code yyyy-MM-dd HH:mm:ss Z} in local time zone, eg. "2015-05-09 08:00:00 +0200".</li>
+ * <li>Download format {@code yyyy-MM-dd'T'HH:mm:ss'Z'} in UTC, eg. "2015-05-09T06:00:00Z".
+ * Fraction of second (eg. ".000") is accepted and ignored when parsing.</li>
+ * </ul>
+ *
+ * @author Lukáš Machalík
+ */
+public final class DateCodec {
+
+    private static final long MILLIS_PER_SECOND = 1000;
+    private static final long MILLIS_PER_DAY = 24 * 60 * 60 * MILLIS_PER_SECOND;
+
+    private static final int UPLOAD_LENGTH = 25; // "2015-05-09 08:00:00 +0200"
+    private static final int DOWNLOAD_LENGTH = 20; // "2015-05-09T06:00:00Z"
+
+    /**
+     * Default time zone is re-read at most once per this interval, so a change of device
+     * time zone is noticed without querying it on every call.
+     */
+    private static final long TIMEZONE_CHECK_INTERVAL_IN_MILLISECONDS = 60 * 1000;
+
+    private static volatile ZoneCache zoneCache = new ZoneCache(TimeZone.getDefault(), System.currentTimeMillis());
+
+    private DateCodec() {
+    }
+
+    /****************************** Public API: ******************************/
+
+    /**
+     * Formats time in upload format, in local time zone.
+     * @param millis epoch millis
+     * @return eg. "2015-05-09 08:00:00 +0200"
+     */
+    public static String formatUpload(long millis) {
+        int offsetMillis = getTimeZone().getOffset(millis);
+        long local = millis + offsetMillis;
+
+        char[] buffer = new char[UPLOAD_LENGTH];
+        writeDateTime(buffer, local, ' ');
+        buffer[19] = ' ';
+        int offsetMinutes = offsetMillis / (60 * 1000);
+        if (offsetMinutes < 0) {
+            buffer[20] = '-';
+            offsetMinutes = -offsetMinutes;
+        } else {
+            buffer[20] = '+';
+        }
+        write2(buffer, 21, offsetMinutes / 60);
+        write2(buffer, 23, offsetMinutes % 60);
+        return new String(buffer);
+    }
+
+    /**
+     * Parses time in upload format.
+     * @param s eg. "2015-05-09 08:00:00 +0200"
+     * @return epoch millis
+     * @throws ParseException if string is not in upload format
+     */
+    public static long parseUpload(String s) throws ParseException {
+        if (s.length() != UPLOAD_LENGTH || s.charAt(19) != ' ') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+        long local = readDateTime(s, ' ');
+
+        char sign = s.charAt(20);
+        if (sign != '+' && sign != '-') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 20);
+        }
+        int offsetMinutes = read2(s, 21) * 60 + read2(s, 23);
+        long offsetMillis = offsetMinutes * 60 * MILLIS_PER_SECOND;
+        return sign == '+' ? local - offsetMillis : local + offsetMillis;
+    }
+
+    /**
+     * Formats time in download format, in UTC.
+     * @param millis epoch millis
+     * @return eg. "2015-05-09T06:00:00Z"
+     */
+    public static String formatDownload(long millis) {
+        char[] buffer = new char[DOWNLOAD_LENGTH];
+        writeDateTime(buffer, millis, 'T');
+        buffer[19] = 'Z';
+        return new String(buffer);
+    }
+
+    /**
+     * Parses time in download format.
+     * @param s eg. "2015-05-09T06:00:00Z" or "2015-05-09T06:00:00.000Z"
+     * @return epoch millis
+     * @throws ParseException if string is not in download format
+     */
+    public static long parseDownload(String s) throws ParseException {
+        int length = s.length();
+        if (length < DOWNLOAD_LENGTH || s.charAt(length - 1) != 'Z') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+        if (length > DOWNLOAD_LENGTH) {
+            // Fraction of second
+            if (s.charAt(19) != '.') {
+                throw new ParseException("Unparseable date: \"" + s + "\"", 19);
+            }
+            for (int i = 20; i < length - 1; i++) {
+                digit(s, i);
+            }
+        }
+        return readDateTime(s, 'T');
+    }
+
+
+    /****************************** Private: ******************************/
+
+    /**
+     * Default time zone with time it was read.
+     */
+    private static class ZoneCache {
+        final TimeZone timeZone;
+        final long checkedAt;
+
+        ZoneCache(TimeZone timeZone, long checkedAt) {
+            this.timeZone = timeZone;
+            this.checkedAt = checkedAt;
+        }
+    }
+
+    private static TimeZone getTimeZone() {
+        ZoneCache cache = zoneCache;
+        long now = System.currentTimeMillis();
+        if (now - cache.checkedAt > TIMEZONE_CHECK_INTERVAL_IN_MILLISECONDS || now < cache.checkedAt) {
+            cache = new ZoneCache(TimeZone.getDefault(), now);
+            zoneCache = cache;
+        }
+        return cache.timeZone;
+    }
+
+    /**
+     * Writes "yyyy-MM-dd?HH:mm:ss" to the first 19 chars of buffer.
+     */
+    private static void writeDateTime(char[] buffer, long millis, char separator) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) ((millis - days * MILLIS_PER_DAY) / MILLIS_PER_SECOND);
+
+        // Civil date from days since epoch, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = (int) (yearOfEra + era * 400) + (month <= 2 ? 1 : 0);
+
+        write2(buffer, 0, year / 100);
+        write2(buffer, 2, year % 100);
+        buffer[4] = '-';
+        write2(buffer, 5, month);
+        buffer[7] = '-';
+        write2(buffer, 8, day);
+        buffer[10] = separator;
+        write2(buffer, 11, secondOfDay / 3600);
+        buffer[13] = ':';
+        write2(buffer, 14, secondOfDay / 60 % 60);
+        buffer[16] = ':';
+        write2(buffer, 17, secondOfDay % 60);
+    }
+
+    /**
+     * Reads "yyyy-MM-dd?HH:mm:ss" from the first 19 chars of string.
+     * @return epoch millis, as if the time was in UTC
+     */
+    private static long readDateTime(String s, char separator) throws ParseException {
+        expect(s, 4, '-');
+        expect(s, 7, '-');
+        expect(s, 10, separator);
+        expect(s, 13, ':');
+        expect(s, 16, ':');
+
+        int year = read2(s, 0) * 100 + read2(s, 2);
+        int month = read2(s, 5);
+        int day = read2(s, 8);
+        int hour = read2(s, 11);
+        int minute = read2(s, 14);
+        int second = read2(s, 17);
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minute > 59 || second > 59) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", 0);
+        }
+
+        // Days since epoch from civil date, see http://howardhinnant.github.io/date_algorithms.html
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        long days = (long) era * 146097 + dayOfEra - 719468;
+
+        return days * MILLIS_PER_DAY + ((hour * 60 + minute) * 60 + second) * MILLIS_PER_SECOND;
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && ((x < 0) != (y < 0))) ? q - 1 : q;
+    }
+
+    private static void write2(char[] buffer, int offset, int value) {
+        buffer[offset] = (char) ('0' + value / 10);
+        buffer[offset + 1] = (char) ('0' + value % 10);
+    }
+
+    private static int read2(String s, int offset) throws ParseException {
+        return digit(s, offset) * 10 + digit(s, offset + 1);
+    }
+
+    private static int digit(String s, int offset) throws ParseException {
+        char c = s.charAt(offset);
+        if (c < '0' || c > '9') {
+            throw new ParseException("Unparseable date: \"" + s + "\"", offset);
+        }
+        return c - '0';
+    }
+
+    private static void expect(String s, int offset, char c) throws ParseException {
+        if (s.charAt(offset) != c) {
+            throw new ParseException("Unparseable date: \"" + s + "\"", offset);
+        }
+    }
+}
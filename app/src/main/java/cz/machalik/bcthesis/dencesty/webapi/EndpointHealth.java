@@ -0,0 +1,85 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.os.SystemClock;
+
+import java.util.Random;
+
+/**
+ * Tracks failures of requests to one server endpoint. After a failure next attempt is allowed
+ * only after exponential backoff with jitter, growing with every consecutive failure.
+ * No attempts are made while there is no network connection at all. When network becomes
+ * available, backoff is cut short and one probe request is allowed.
+ *
+ * @author Lukáš Machalík
+ */
+public class EndpointHealth {
+
+    /**
+     * Backoff after the first failure (in millis). It is doubled with every next failure.
+     */
+    public static final long BASE_BACKOFF_IN_MILLISECONDS = 10 * 1000;
+
+    /**
+     * Maximum backoff (in millis).
+     */
+    public static final long MAX_BACKOFF_IN_MILLISECONDS = 15 * 60 * 1000;
+
+    private final Random random = new Random();
+
+    private int consecutiveFailures = 0;
+    private long nextAttemptTime = 0; // in SystemClock.elapsedRealtime() time base
+    private boolean isNetworkDown = false;
+
+    /**
+     * Returns true if request to endpoint should be attempted now.
+     * @return false while in backoff or while network is down
+     */
+    public synchronized boolean isAttemptAllowed() {
+        return !isNetworkDown && SystemClock.elapsedRealtime() >= nextAttemptTime;
+    }
+
+    /**
+     * Returns time remaining to the next allowed attempt.
+     * @return delay in millis, or -1 if attempt is not allowed until network connectivity changes
+     */
+    public synchronized long getRetryDelay() {
+        if (isNetworkDown) {
+            return -1;
+        }
+        return Math.max(0, nextAttemptTime - SystemClock.elapsedRealtime());
+    }
+
+    /**
+     * Records successful request. Backoff is reset.
+     */
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+        nextAttemptTime = 0;
+    }
+
+    /**
+     * Records failed request and starts backoff.
+     */
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+
+        long backoff = BASE_BACKOFF_IN_MILLISECONDS << Math.min(consecutiveFailures - 1, 16);
+        backoff = Math.min(backoff, MAX_BACKOFF_IN_MILLISECONDS);
+        // Half of backoff is random, so retries do not come in regular bursts
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        nextAttemptTime = SystemClock.elapsedRealtime() + delay;
+    }
+
+    /**
+     * Called on network connectivity change. When network becomes available, backoff
+     * is cut short and one probe request is allowed. Failures count is kept, so if the probe
+     * fails, backoff continues to grow.
+     * @param isConnected true if some network is connected
+     */
+    public synchronized void onConnectivityChanged(boolean isConnected) {
+        isNetworkDown = !isConnected;
+        if (isConnected) {
+            nextAttemptTime = 0;
+        }
+    }
+}
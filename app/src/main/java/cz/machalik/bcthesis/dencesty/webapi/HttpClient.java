@@ -0,0 +1,110 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.content.Context;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Shared HTTP client of all {@link WebAPI} requests. Connections are opened with common
+ * settings and released without disconnecting, so the underlying keep-alive socket is returned
+ * to the system connection pool and reused by the next request to the same server. TLS sessions
+ * are cached on disk, so even a new socket resumes TLS session with abbreviated handshake,
+ * also after app restart.
+ *
+ * @author Lukáš Machalík
+ */
+final class HttpClient {
+
+    /**
+     * Timeout of TLS handshake (in millis).
+     */
+    private static final int HANDSHAKE_TIMEOUT_IN_MILLISECONDS = 30 * 1000;
+
+    private static final int DRAIN_BUFFER_SIZE = 1024;
+
+    /**
+     * Socket factory with TLS session cache, set to every HTTPS connection of the app.
+     * It is the same instance for all connections, so their sockets can be pooled together.
+     */
+    private static volatile SSLSocketFactory sslSocketFactory = null;
+
+    private HttpClient() {
+    }
+
+    /**
+     * Sets up TLS session cache. Call it once at app start, before the first request.
+     * It is used only by connections opened here, other HTTPS connections of the process
+     * (eg. of libraries) keep system defaults.
+     * @param context any context, only application context is held
+     */
+    static void init(Context context) {
+        SSLSessionCache sessionCache = new SSLSessionCache(context.getApplicationContext());
+        sslSocketFactory = SSLCertificateSocketFactory.getDefault(HANDSHAKE_TIMEOUT_IN_MILLISECONDS, sessionCache);
+    }
+
+    /**
+     * Opens POST connection with common settings. Connection has to be released by
+     * {@link #release(HttpURLConnection)}.
+     * @param url request URL
+     * @param timeoutMillis connect and read timeout
+     * @return connection, not connected yet
+     * @throws IOException if connection can not be opened
+     */
+    static HttpURLConnection open(URL url, int timeoutMillis) throws IOException {
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        if (sslSocketFactory != null && urlConnection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) urlConnection).setSSLSocketFactory(sslSocketFactory);
+        }
+        urlConnection.setDoOutput(true);
+        urlConnection.setRequestMethod("POST");
+        urlConnection.setUseCaches(false);
+        urlConnection.setConnectTimeout(timeoutMillis);
+        urlConnection.setReadTimeout(timeoutMillis);
+        return urlConnection;
+    }
+
+    /**
+     * Closes connection after failed request (eg. timeout), its socket is in unknown state
+     * and must not be reused.
+     * @param urlConnection failed connection, may be null
+     */
+    static void abort(HttpURLConnection urlConnection) {
+        if (urlConnection != null) {
+            urlConnection.disconnect();
+        }
+    }
+
+    /**
+     * Releases connection for reuse. Response body has to be already read to the end and closed,
+     * error response body is read and closed here. Socket is closed only if it can not be reused.
+     * @param urlConnection connection to release, may be null
+     */
+    static void release(HttpURLConnection urlConnection) {
+        if (urlConnection == null) {
+            return;
+        }
+
+        InputStream errorStream = urlConnection.getErrorStream();
+        if (errorStream == null) {
+            return;
+        }
+        try {
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while (errorStream.read(buffer) != -1) {
+                // discard
+            }
+            errorStream.close();
+        } catch (IOException e) {
+            // Socket is in unknown state, do not reuse it
+            urlConnection.disconnect();
+        }
+    }
+}
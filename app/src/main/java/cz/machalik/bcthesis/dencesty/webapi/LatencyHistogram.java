@@ -0,0 +1,108 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in milliseconds. Buckets grow exponentially and each power
+ * of two is split into {@link #SUB_BUCKETS} linear sub-buckets (like HdrHistogram), so every
+ * recorded value is kept with relative error below 12.5 % in fixed memory.
+ *
+ * @author Lukáš Machalík
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The highest tracked power of two, larger values are counted in the last bucket
+     * (about 35 minutes).
+     */
+    private static final int MAX_EXPONENT = 21;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    /**
+     * Records one value.
+     * @param value latency in millis
+     */
+    void record(long value) {
+        counts.incrementAndGet(indexOf(value));
+        totalCount.incrementAndGet();
+
+        long max;
+        while (value > (max = maxValue.get())) {
+            if (maxValue.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Returns number of recorded values.
+     * @return values count
+     */
+    long getCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * Returns the largest recorded value.
+     * @return latency in millis
+     */
+    long getMax() {
+        return maxValue.get();
+    }
+
+    /**
+     * Returns value at given percentile, as upper bound of the bucket holding it.
+     * @param percentile percentile between 0 and 100
+     * @return latency in millis, 0 if nothing was recorded
+     */
+    long getPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns bucket index of a value.
+     */
+    private static int indexOf(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value counted in bucket.
+     */
+    private static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+    }
+}
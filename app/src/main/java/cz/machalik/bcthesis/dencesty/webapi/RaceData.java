@@ -0,0 +1,61 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import cz.machalik.bcthesis.dencesty.model.Checkpoint;
+
+/**
+ * Race data as received from a server: race metadata, race route and current user's progress.
+ *
+ * @author Lukáš Machalík
+ */
+public class RaceData {
+
+    /**
+     * Race metadata.
+     */
+    public final RaceInfo race;
+    /**
+     * Race route, sorted by check ID.
+     */
+    public final Checkpoint[] checkpoints;
+    /**
+     * True if server knows user's progress in race (scoreboard fields are valid).
+     */
+    public final boolean hasScoreboard;
+    /**
+     * User's state in race, see {@link cz.machalik.bcthesis.dencesty.model.WalkersModel.RaceState}.
+     */
+    public final int raceState;
+    /**
+     * User's elapsed distance in meters.
+     */
+    public final int distance;
+    /**
+     * User's average speed in km/h.
+     */
+    public final double avgSpeed;
+    /**
+     * Check ID of the last checkpoint passed by user.
+     */
+    public final int lastCheckpoint;
+
+    /**
+     * Creates race data.
+     * @param race race metadata
+     * @param checkpoints race route, sorted by check ID
+     * @param hasScoreboard true if server knows user's progress in race
+     * @param raceState user's state in race
+     * @param distance user's elapsed distance in meters
+     * @param avgSpeed user's average speed in km/h
+     * @param lastCheckpoint check ID of the last checkpoint passed by user
+     */
+    public RaceData(RaceInfo race, Checkpoint[] checkpoints, boolean hasScoreboard, int raceState,
+                    int distance, double avgSpeed, int lastCheckpoint) {
+        this.race = race;
+        this.checkpoints = checkpoints;
+        this.hasScoreboard = hasScoreboard;
+        this.raceState = raceState;
+        this.distance = distance;
+        this.avgSpeed = avgSpeed;
+        this.lastCheckpoint = lastCheckpoint;
+    }
+}
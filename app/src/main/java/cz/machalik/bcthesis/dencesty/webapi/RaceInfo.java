@@ -0,0 +1,48 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import java.util.Date;
+
+/**
+ * Race metadata as received from a server.
+ *
+ * @author Lukáš Machalík
+ */
+public class RaceInfo {
+
+    /**
+     * Race ID.
+     */
+    public final int id;
+    /**
+     * Czech race name.
+     */
+    public final String nameCS;
+    /**
+     * English race name, empty if there is none.
+     */
+    public final String nameEN;
+    /**
+     * Official race start time.
+     */
+    public final Date startTime;
+    /**
+     * Official race finish time.
+     */
+    public final Date finishTime;
+
+    /**
+     * Creates race metadata.
+     * @param id Race ID
+     * @param nameCS Czech race name
+     * @param nameEN English race name
+     * @param startTime official race start time
+     * @param finishTime official race finish time
+     */
+    public RaceInfo(int id, String nameCS, String nameEN, Date startTime, Date finishTime) {
+        this.id = id;
+        this.nameCS = nameCS;
+        this.nameEN = nameEN;
+        this.startTime = startTime;
+        this.finishTime = finishTime;
+    }
+}
@@ -0,0 +1,147 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+
+/**
+ * Request to a server endpoint performed by {@link RequestEngine}. Subclass defines request
+ * headers, body and parsing of response, the engine does connecting, reading, error handling
+ * and instrumentation the same way for all endpoints.
+ *
+ * @param <T> type of parsed response
+ *
+ * @author Lukáš Machalík
+ */
+public abstract class Request<T> {
+
+    private final String name;
+    private final String url;
+    private final int timeoutMillis;
+    private final RequestMetrics metrics;
+
+    /**
+     * Creates request.
+     * @param name name of endpoint used in log messages
+     * @param url request URL
+     * @param timeoutMillis connect and read timeout, whole request is cancelled
+     *                      after {@link #getDeadlineMillis()}
+     * @param metrics metrics of endpoint
+     */
+    protected Request(String name, String url, int timeoutMillis, RequestMetrics metrics) {
+        this.name = name;
+        this.url = url;
+        this.timeoutMillis = timeoutMillis;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets request headers. Called before connection is opened.
+     * @param urlConnection connection, not connected yet
+     */
+    protected void configure(HttpURLConnection urlConnection) {
+        urlConnection.setRequestProperty("Content-Type", "application/json");
+    }
+
+    /**
+     * Writes request body. Default request has empty body.
+     * @param out request body stream, implementation has to close it
+     * @throws IOException if writing fails
+     */
+    protected void writeBody(OutputStream out) throws IOException {
+    }
+
+    /**
+     * Returns true if request has body, see {@link #writeBody(OutputStream)}.
+     * @return true if request has body
+     */
+    protected boolean hasBody() {
+        return false;
+    }
+
+    /**
+     * Decodes response body of successful (HTTP 200) response, or cached one.
+     * @param body response body, it is closed by caller
+     * @return decoded response
+     * @throws IOException if reading fails
+     * @throws JSONException if response can not be decoded
+     */
+    protected abstract T parse(Reader body) throws IOException, JSONException;
+
+    /**
+     * Reads the whole response body, for small responses parsed to JSON tree.
+     * @param body response body
+     * @return response body
+     * @throws IOException if reading fails
+     */
+    protected static String readFully(Reader body) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[1024];
+        int count;
+        while ((count = body.read(buffer)) != -1) {
+            sb.append(buffer, 0, count);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns key of response in {@link ResponseCache}. Every successful response replaces
+     * the cached one, which can be shown before the request completes. Default request
+     * is not cached.
+     * @return cache key, or null if response is not cached
+     */
+    protected String getCacheKey() {
+        return null;
+    }
+
+    /**
+     * Called on response with other HTTP status code than 200.
+     * @param responseCode HTTP status code
+     */
+    protected void onErrorResponse(int responseCode) {
+    }
+
+    /**
+     * Returns name of endpoint used in log messages.
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns request URL.
+     * @return URL
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * Returns connect and read timeout.
+     * @return timeout in millis
+     */
+    public int getTimeoutMillis() {
+        return timeoutMillis;
+    }
+
+    /**
+     * Returns maximum duration of the whole request (connect, write and read),
+     * it is cancelled after that.
+     * @return deadline in millis
+     */
+    public long getDeadlineMillis() {
+        return 3L * timeoutMillis;
+    }
+
+    /**
+     * Returns metrics of endpoint.
+     * @return metrics
+     */
+    public RequestMetrics getMetrics() {
+        return metrics;
+    }
+}
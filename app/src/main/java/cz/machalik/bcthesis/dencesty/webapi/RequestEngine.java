@@ -0,0 +1,283 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Performs all {@link Request}s to a server on a small bounded pool of threads. Connecting,
+ * reading response, error handling and metrics are done the same way for all endpoints here.
+ *
+ * <p>
+ * Requests can be submitted with callback, which is called on the main thread, or performed
+ * synchronously from a background thread. Each request is cancelled after its deadline and
+ * cancelling aborts its socket, so a stalled request never holds a thread for long.
+ *
+ * @author Lukáš Machalík
+ */
+public class RequestEngine {
+
+    protected static final String TAG = "RequestEngine";
+
+    /**
+     * Maximum number of requests performed at once. Others wait in queue.
+     */
+    public static final int MAX_CONCURRENT_REQUESTS = 3;
+
+    /**
+     * Maximum number of requests waiting in queue. More requests are rejected (they fail).
+     */
+    public static final int MAX_QUEUED_REQUESTS = 32;
+
+    /**
+     * Callback of asynchronous request.
+     * @param <T> type of parsed response
+     */
+    public interface Callback<T> {
+        /**
+         * Called on the main thread when request completes. It is not called
+         * for cancelled request.
+         * @param result parsed response, or null if request failed
+         */
+        void onResult(T result);
+    }
+
+    /****************************** Public API: ******************************/
+
+    /**
+     * Returns shared engine.
+     * @return engine
+     */
+    public static RequestEngine get() {
+        return instance;
+    }
+
+    /**
+     * Submits request to be performed on background.
+     * @param request request to perform
+     * @param callback called on the main thread with result, may be null
+     * @param <T> type of parsed response
+     * @return pending result, cancel it to abort request
+     */
+    public <T> RequestFuture<T> submit(Request<T> request, Callback<T> callback) {
+        PerformCallable<T> callable = new PerformCallable<>(request);
+        RequestFuture<T> future = new RequestFuture<>(callable, request.getName(), mainHandler, callback);
+        callable.future = future;
+
+        mainHandler.postDelayed(future.deadline, request.getDeadlineMillis());
+        try {
+            executor.execute(future);
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, request.getName() + ": Rejected, too many pending requests");
+            future.fail();
+        }
+        return future;
+    }
+
+    /**
+     * Performs request synchronously. Request is performed on the engine's thread,
+     * so the number of concurrent requests is bounded also for synchronous callers.
+     * Never call it from the main thread.
+     * @param request request to perform
+     * @param <T> type of parsed response
+     * @return parsed response, or null if request failed or was cancelled
+     */
+    public <T> T execute(Request<T> request) {
+        RequestFuture<T> future = submit(request, null);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (CancellationException | ExecutionException e) {
+            return null;
+        }
+    }
+
+
+    /****************************** Private: ******************************/
+
+    /**
+     * Aborts connection of cancelled request on background. Closing TLS socket writes
+     * close_notify to network, so it must not be done on the main thread.
+     * @param urlConnection connection to abort, may be null
+     */
+    void abort(final HttpURLConnection urlConnection) {
+        if (urlConnection == null) {
+            return;
+        }
+        abortExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                HttpClient.abort(urlConnection);
+            }
+        });
+    }
+
+    private static final RequestEngine instance = new RequestEngine();
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Single thread closing sockets of cancelled requests.
+     */
+    private final ThreadPoolExecutor abortExecutor;
+
+    private RequestEngine() {
+        this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_REQUESTS, MAX_CONCURRENT_REQUESTS,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_QUEUED_REQUESTS),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "RequestEngine #" + count.getAndIncrement());
+                    }
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+
+        this.abortExecutor = new ThreadPoolExecutor(1, 1,
+                30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        return new Thread(r, "RequestEngine abort");
+                    }
+                });
+        this.abortExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Performs request on the engine's thread.
+     * @return parsed response, or null if request failed
+     */
+    private <T> T perform(Request<T> request, RequestFuture<T> future) {
+        T result = null;
+        HttpURLConnection urlConnection = null;
+        RequestMetrics.Recorder recorder = request.getMetrics().startRequest();
+        try {
+            URL url = new URL(request.getUrl());
+            urlConnection = HttpClient.open(url, request.getTimeoutMillis());
+            future.setConnection(urlConnection);
+            request.configure(urlConnection);
+
+            // Cached response is not revalidated with conditional headers, requests are POST
+            // and a server answers them with 412 Precondition Failed at best, never with 304
+            String cacheKey = request.getCacheKey();
+            urlConnection.connect();
+
+            if (request.hasBody()) {
+                OutputStream os = recorder.countRequestBody(urlConnection.getOutputStream());
+                request.writeBody(os);
+                os.close();
+            }
+
+            int responseCode = urlConnection.getResponseCode();
+            recorder.setOutcome(RequestMetrics.OUTCOME_HTTP_ERROR);
+            if (responseCode == 200) {
+
+                InputStream in = recorder.countResponseBody(urlConnection.getInputStream());
+                ResponseCache.Editor cacheEditor = null;
+                if (cacheKey != null) {
+                    cacheEditor = ResponseCache.edit(cacheKey);
+                    if (cacheEditor != null) {
+                        in = cacheEditor.tee(in);
+                    }
+                }
+                try {
+                    result = request.parse(new InputStreamReader(in, "UTF-8"));
+                    drain(in); // rest of body, so connection can be reused and cached body is complete
+                    in.close();
+                    if (cacheEditor != null) {
+                        cacheEditor.commit();
+                        cacheEditor = null;
+                    }
+                } finally {
+                    if (cacheEditor != null) {
+                        cacheEditor.abort();
+                    }
+                }
+                recorder.setOutcome(RequestMetrics.OUTCOME_SUCCESS);
+
+            } else {
+                String message = request.getName() + ": Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
+                Log.e(TAG, message);
+                request.onErrorResponse(responseCode);
+            }
+
+        } catch (MalformedURLException e) {
+            String message = request.getName() + ": MalformedURLException: " + e.getLocalizedMessage();
+            Log.e(TAG, message);
+            e.printStackTrace();
+        } catch (IOException e) {
+            recorder.setOutcome(RequestMetrics.OUTCOME_IO_ERROR);
+            HttpClient.abort(urlConnection);
+            String message = request.getName() + ": IOException: " + e.getLocalizedMessage();
+            Log.e(TAG, message);
+        } catch (JSONException e) {
+            recorder.setOutcome(RequestMetrics.OUTCOME_PARSE_ERROR);
+            HttpClient.abort(urlConnection); // response body was not read to the end
+            String message = request.getName() + ": JSONException: " + e.getLocalizedMessage();
+            Log.e(TAG, message);
+            e.printStackTrace();
+        } finally {
+            recorder.finish();
+            HttpClient.release(urlConnection);
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads stream to the end.
+     */
+    private static void drain(InputStream in) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+    }
+
+    /**
+     * Performs request, it needs its future to make the request abortable.
+     */
+    private class PerformCallable<T> implements Callable<T> {
+        private final Request<T> request;
+        private RequestFuture<T> future;
+
+        PerformCallable(Request<T> request) {
+            this.request = request;
+        }
+
+        @Override
+        public T call() {
+            return perform(request, future);
+        }
+    }
+}
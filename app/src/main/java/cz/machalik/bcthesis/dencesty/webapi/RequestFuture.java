@@ -0,0 +1,104 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.os.Handler;
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Pending result of a request submitted to {@link RequestEngine}. Cancelling it aborts
+ * the request socket, so a blocked connect or read ends immediately.
+ *
+ * @param <T> type of parsed response
+ *
+ * @author Lukáš Machalík
+ */
+public class RequestFuture<T> extends FutureTask<T> {
+
+    protected static final String TAG = "RequestFuture";
+
+    private final String name;
+    private final Handler mainHandler;
+    private final RequestEngine.Callback<T> callback;
+    private volatile HttpURLConnection connection = null;
+
+    /**
+     * Cancels request when its deadline passes.
+     */
+    final Runnable deadline = new Runnable() {
+        @Override
+        public void run() {
+            if (cancel(true)) {
+                Log.w(TAG, name + ": Cancelled after deadline");
+            }
+        }
+    };
+
+    RequestFuture(Callable<T> callable, String name, Handler mainHandler, RequestEngine.Callback<T> callback) {
+        super(callable);
+        this.name = name;
+        this.mainHandler = mainHandler;
+        this.callback = callback;
+    }
+
+    /**
+     * Sets connection of running request, so it can be aborted.
+     */
+    void setConnection(HttpURLConnection connection) {
+        this.connection = connection;
+        if (isCancelled()) {
+            HttpClient.abort(connection);
+        }
+    }
+
+    /**
+     * Completes request without performing it (eg. it was rejected), result is null.
+     */
+    void fail() {
+        set(null);
+    }
+
+    /**
+     * Cancels request. Running request is aborted by closing its socket, which is done
+     * on background, so it is safe to cancel request from the main thread.
+     * @param mayInterruptIfRunning ignored, running request is always aborted
+     * @return false if request could not be cancelled (it has already completed)
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean isCancelled = super.cancel(false);
+        if (isCancelled) {
+            RequestEngine.get().abort(connection);
+        }
+        return isCancelled;
+    }
+
+    /**
+     * Posts result to callback on the main thread, unless request was cancelled.
+     */
+    @Override
+    protected void done() {
+        mainHandler.removeCallbacks(deadline);
+        if (callback == null || isCancelled()) {
+            return;
+        }
+
+        T result;
+        try {
+            result = get();
+        } catch (InterruptedException | CancellationException | ExecutionException e) {
+            result = null;
+        }
+        final T finalResult = result;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(finalResult);
+            }
+        });
+    }
+}
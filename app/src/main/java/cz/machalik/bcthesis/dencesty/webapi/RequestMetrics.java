@@ -0,0 +1,244 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.os.SystemClock;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low overhead metrics of requests to one server endpoint: outcomes, bytes sent and received
+ * and latency histogram. All counters are lock-free, so recording never blocks a request.
+ *
+ * @author Lukáš Machalík
+ */
+public class RequestMetrics {
+
+    /**
+     * Request succeeded.
+     */
+    public static final int OUTCOME_SUCCESS = 0;
+    /**
+     * Server responded with unexpected HTTP status code.
+     */
+    public static final int OUTCOME_HTTP_ERROR = 1;
+    /**
+     * Connection failed or timed out.
+     */
+    public static final int OUTCOME_IO_ERROR = 2;
+    /**
+     * Response could not be parsed.
+     */
+    public static final int OUTCOME_PARSE_ERROR = 3;
+    /**
+     * Request was not attempted (backoff or no network), or it got result of identical request.
+     */
+    public static final int OUTCOME_SKIPPED = 4;
+
+    private static final String[] OUTCOME_NAMES = {"ok", "http", "io", "parse", "skip"};
+
+    // Metrics of each endpoint:
+    public static final RequestMetrics LOGIN = new RequestMetrics("login");
+    public static final RequestMetrics EVENTS = new RequestMetrics("events");
+    public static final RequestMetrics RACES_LIST = new RequestMetrics("races");
+    public static final RequestMetrics RACE_DATA = new RequestMetrics("raceData");
+    public static final RequestMetrics WALKERS_LIST = new RequestMetrics("walkers");
+
+    private static final RequestMetrics[] ALL = {LOGIN, EVENTS, RACES_LIST, RACE_DATA, WALKERS_LIST};
+
+    /**
+     * Start of metrics collection, to compute rates.
+     */
+    private static final long startTime = SystemClock.elapsedRealtime();
+
+    private final String name;
+    private final AtomicLongArray outcomes = new AtomicLongArray(OUTCOME_NAMES.length);
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private RequestMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Returns metrics of all endpoints.
+     * @return metrics of all endpoints
+     */
+    public static RequestMetrics[] getAll() {
+        return ALL.clone();
+    }
+
+    /**
+     * Returns time since metrics collection started.
+     * @return time in millis
+     */
+    public static long getUptime() {
+        return SystemClock.elapsedRealtime() - startTime;
+    }
+
+    /**
+     * Returns compact text snapshot of metrics of all endpoints which were requested.
+     * @return snapshot, eg. "up=60m; events ok=10 ... p95=800 max=1200"
+     */
+    public static String getSnapshot() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("up=").append(getUptime() / (60 * 1000)).append('m');
+        for (RequestMetrics metrics : ALL) {
+            if (metrics.getRequestsCount() > 0) {
+                sb.append("; ").append(metrics.toString());
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Starts measuring one request.
+     * @return recorder of the request
+     */
+    public Recorder startRequest() {
+        return new Recorder();
+    }
+
+    /**
+     * Records request which was not attempted.
+     */
+    public void recordSkipped() {
+        outcomes.incrementAndGet(OUTCOME_SKIPPED);
+    }
+
+    /**
+     * Returns endpoint name.
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns number of requests with given outcome.
+     * @param outcome one of OUTCOME_* constants
+     * @return requests count
+     */
+    public long getOutcomeCount(int outcome) {
+        return outcomes.get(outcome);
+    }
+
+    /**
+     * Returns number of all requests, including skipped ones.
+     * @return requests count
+     */
+    public long getRequestsCount() {
+        long count = 0;
+        for (int i = 0; i < outcomes.length(); i++) {
+            count += outcomes.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns number of request body bytes sent.
+     * @return bytes count
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Returns number of response body bytes received.
+     * @return bytes count
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Returns latency of attempted requests at given percentile.
+     * @param percentile percentile between 0 and 100
+     * @return latency in millis
+     */
+    public long getLatencyPercentile(double percentile) {
+        return latency.getPercentile(percentile);
+    }
+
+    /**
+     * Returns the longest latency of attempted requests.
+     * @return latency in millis
+     */
+    public long getLatencyMax() {
+        return latency.getMax();
+    }
+
+    /**
+     * Return compact text representation of metrics.
+     * @return string representation
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name);
+        for (int i = 0; i < OUTCOME_NAMES.length; i++) {
+            sb.append(' ').append(OUTCOME_NAMES[i]).append('=').append(outcomes.get(i));
+        }
+        sb.append(" tx=").append(getBytesSent());
+        sb.append(" rx=").append(getBytesReceived());
+        sb.append(" p50=").append(getLatencyPercentile(50));
+        sb.append(" p95=").append(getLatencyPercentile(95));
+        sb.append(" p99=").append(getLatencyPercentile(99));
+        sb.append(" max=").append(getLatencyMax());
+        return sb.toString();
+    }
+
+    /**
+     * Measures one request. Wrap request and response body streams with it, set outcome
+     * and call {@link #finish()} when the request ends.
+     */
+    public class Recorder {
+        private final long requestStartTime = SystemClock.elapsedRealtime();
+        private int outcome = OUTCOME_IO_ERROR;
+        private CountingOutputStream requestBody = null;
+        private CountingInputStream responseBody = null;
+
+        /**
+         * Wraps request body stream to count sent bytes.
+         * @param out request body stream
+         * @return counting stream
+         */
+        public OutputStream countRequestBody(OutputStream out) {
+            requestBody = new CountingOutputStream(out);
+            return requestBody;
+        }
+
+        /**
+         * Wraps response body stream to count received bytes.
+         * @param in response body stream
+         * @return counting stream
+         */
+        public InputStream countResponseBody(InputStream in) {
+            responseBody = new CountingInputStream(in);
+            return responseBody;
+        }
+
+        /**
+         * Sets outcome of the request. Default outcome is {@link #OUTCOME_IO_ERROR}.
+         * @param outcome one of OUTCOME_* constants
+         */
+        public void setOutcome(int outcome) {
+            this.outcome = outcome;
+        }
+
+        /**
+         * Records measured request.
+         */
+        public void finish() {
+            latency.record(SystemClock.elapsedRealtime() - requestStartTime);
+            outcomes.incrementAndGet(outcome);
+            if (requestBody != null) {
+                bytesSent.addAndGet(requestBody.getCount());
+            }
+            if (responseBody != null) {
+                bytesReceived.addAndGet(responseBody.getCount());
+            }
+        }
+    }
+}
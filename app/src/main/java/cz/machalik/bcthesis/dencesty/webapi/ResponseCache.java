@@ -0,0 +1,276 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Disk cache of the last successful server responses. Cached response is served before a fresh
+ * one is downloaded, or when the download fails. It is not revalidated with conditional headers,
+ * all requests are POST and a server does not answer them with 304 Not Modified.
+ *
+ * <p>
+ * Every response is one file in app cache directory. It is written to temporary file while
+ * the response is read from network and renamed when it was read completely, so a reader never
+ * sees a partially written response. The oldest responses are deleted when
+ * the cache grows over {@link #MAX_SIZE_IN_BYTES}.
+ *
+ * @author Lukáš Machalík
+ */
+final class ResponseCache {
+
+    protected static final String TAG = "ResponseCache";
+
+    /**
+     * Maximum size of all cached responses.
+     */
+    public static final long MAX_SIZE_IN_BYTES = 2 * 1024 * 1024;
+
+    private static final String DIRECTORY_NAME = "responses";
+    private static final int FORMAT_VERSION = 3;
+
+    private static volatile File directory = null;
+
+    private ResponseCache() {
+    }
+
+    /**
+     * Cached response. Body is read from disk only when it is opened.
+     */
+    static class Entry {
+        private final File file;
+        private final long bodyOffset;
+
+        Entry(File file, long bodyOffset) {
+            this.file = file;
+            this.bodyOffset = bodyOffset;
+        }
+
+        /**
+         * Opens cached response body.
+         * @return response body stream, caller has to close it
+         * @throws IOException if response was deleted meanwhile
+         */
+        InputStream openBody() throws IOException {
+            InputStream in = new BufferedInputStream(new FileInputStream(file));
+            long skipped = 0;
+            while (skipped < bodyOffset) {
+                long n = in.skip(bodyOffset - skipped);
+                if (n <= 0) {
+                    in.close();
+                    throw new EOFException("Truncated " + file);
+                }
+                skipped += n;
+            }
+            return in;
+        }
+    }
+
+    /**
+     * Response being written to cache. Body is copied to cache while it is read from network,
+     * the response replaces the cached one only after it is committed.
+     */
+    static class Editor {
+        private final File file;
+        private final File tempFile;
+        private final OutputStream out;
+        private boolean isFailed = false;
+
+        private Editor(File file, File tempFile, OutputStream out) {
+            this.file = file;
+            this.tempFile = tempFile;
+            this.out = out;
+        }
+
+        /**
+         * Wraps response body stream, everything read from it is written to cache.
+         * @param in response body stream
+         * @return wrapped stream
+         */
+        InputStream tee(InputStream in) {
+            return new FilterInputStream(in) {
+                @Override
+                public int read() throws IOException {
+                    int b = super.read();
+                    if (b != -1) {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    int n = super.read(buffer, offset, count);
+                    if (n > 0) {
+                        write(buffer, offset, n);
+                    }
+                    return n;
+                }
+            };
+        }
+
+        private void write(byte[] buffer, int offset, int count) {
+            if (isFailed) {
+                return;
+            }
+            try {
+                out.write(buffer, offset, count);
+            } catch (IOException e) {
+                // Failing cache must not fail the request
+                isFailed = true;
+            }
+        }
+
+        /**
+         * Replaces cached response with the written one. Call it when the whole body was read.
+         */
+        void commit() {
+            closeQuietly(out);
+            if (isFailed || !tempFile.renameTo(file)) {
+                Log.e(TAG, "Writing " + file + " failed");
+                tempFile.delete();
+                return;
+            }
+            trim(file.getParentFile());
+        }
+
+        /**
+         * Discards the written response, cached one stays.
+         */
+        void abort() {
+            closeQuietly(out);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * Sets up cache directory. Call it once at app start, before the first request.
+     * @param context any context
+     */
+    static void init(Context context) {
+        File dir = new File(context.getCacheDir(), DIRECTORY_NAME);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Can not create cache directory " + dir);
+            return;
+        }
+        directory = dir;
+    }
+
+    /**
+     * Returns cached response.
+     * @param key cache key (request URL)
+     * @return cached response, or null if there is none
+     */
+    static Entry get(String key) {
+        File file = fileFor(key);
+        if (file == null || !file.isFile()) {
+            return null;
+        }
+
+        CountingInputStream counter = null;
+        try {
+            counter = new CountingInputStream(new BufferedInputStream(new FileInputStream(file)));
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != FORMAT_VERSION || !key.equals(in.readUTF())) {
+                return null; // other format or hash collision
+            }
+            return new Entry(file, counter.getCount());
+        } catch (IOException e) {
+            Log.e(TAG, "Reading " + file + " failed: " + e.getLocalizedMessage());
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(counter);
+        }
+    }
+
+    /**
+     * Starts writing response to cache.
+     * @param key cache key (request URL)
+     * @return editor, or null if response can not be cached
+     */
+    static Editor edit(String key) {
+        File file = fileFor(key);
+        if (file == null) {
+            return null;
+        }
+
+        File tempFile = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(key);
+            return new Editor(file, tempFile, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Writing " + file + " failed: " + e.getLocalizedMessage());
+            closeQuietly(out);
+            tempFile.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Deletes the oldest responses until cache fits its maximum size.
+     */
+    private static void trim(File dir) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        long size = 0;
+        for (File file : files) {
+            size += file.length();
+        }
+        if (size <= MAX_SIZE_IN_BYTES) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < files.length && size > MAX_SIZE_IN_BYTES; i++) {
+            size -= files[i].length();
+            files[i].delete();
+        }
+    }
+
+    private static File fileFor(String key) {
+        File dir = directory;
+        if (dir == null) {
+            return null;
+        }
+        return new File(dir, Integer.toHexString(key.hashCode()));
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import cz.machalik.bcthesis.dencesty.model.Checkpoint;
+import cz.machalik.bcthesis.dencesty.model.WalkersModel.Walker;
+
+/**
+ * Streaming decoders of server responses. Responses are read token by token straight into
+ * result objects, without building a JSON tree nor a copy of response string, so peak memory
+ * of a long race route is only the route itself.
+ *
+ * <p>
+ * Unknown fields are skipped and null values are treated as missing. Malformed response
+ * is reported as {@link JSONException}, so it is distinguished from connection failure.
+ *
+ * @author Lukáš Machalík
+ */
+final class ResponseDecoder {
+
+    /**
+     * Decodes races list response (JSON array of races).
+     * @param in response body
+     * @return races
+     * @throws IOException if reading fails
+     * @throws JSONException if response is malformed
+     */
+    List<RaceInfo> decodeRacesList(Reader in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            List<RaceInfo> races = new ArrayList<>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                races.add(readRaceInfo(reader));
+            }
+            reader.endArray();
+            return races;
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException | ParseException e) {
+            throw new JSONException("Races list: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes race data response (object with race, checkpoints and scoreboard).
+     * @param in response body
+     * @return race data
+     * @throws IOException if reading fails
+     * @throws JSONException if response is malformed or race or checkpoints are missing
+     */
+    RaceData decodeRaceData(Reader in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            RaceInfo race = null;
+            Checkpoint[] checkpoints = null;
+            boolean hasScoreboard = false;
+            int raceState = 0;
+            int distance = 0;
+            double avgSpeed = Double.NaN;
+            int lastCheckpoint = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (skipNull(reader)) {
+                    continue;
+                }
+                switch (name) {
+                    case "race":
+                        race = readRaceInfo(reader);
+                        break;
+                    case "checkpoints":
+                        checkpoints = readCheckpoints(reader);
+                        break;
+                    case "scoreboard":
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            String field = reader.nextName();
+                            if (skipNull(reader)) {
+                                continue;
+                            }
+                            hasScoreboard = true;
+                            switch (field) {
+                                case "raceState": raceState = reader.nextInt(); break;
+                                case "distance": distance = reader.nextInt(); break;
+                                case "avgSpeed": avgSpeed = reader.nextDouble(); break;
+                                case "lastCheckpoint": lastCheckpoint = reader.nextInt(); break;
+                                default: reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (race == null || checkpoints == null) {
+                throw new JSONException("Race data: missing race or checkpoints");
+            }
+            return new RaceData(race, checkpoints, hasScoreboard, raceState, distance, avgSpeed, lastCheckpoint);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException | ParseException e) {
+            throw new JSONException("Race data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Decodes scoreboard response. Present walker has no name, it is known only to the app.
+     * @param in response body
+     * @return scoreboard
+     * @throws IOException if reading fails
+     * @throws JSONException if response is malformed or some entries are missing
+     */
+    Scoreboard decodeScoreboard(Reader in) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            int distance = 0;
+            double speed = Double.NaN;
+            int raceState = 0;
+            double latitude = 0;
+            double longitude = 0;
+            Date updatedAt = null;
+            int numWalkersAhead = 0;
+            int numWalkersBehind = 0;
+            int numWalkersEnded = 0;
+            Walker[] walkersAhead = null;
+            Walker[] walkersBehind = null;
+            int seen = 0;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (skipNull(reader)) {
+                    continue;
+                }
+                switch (name) {
+                    case "distance": distance = reader.nextInt(); seen |= 1; break;
+                    case "speed": speed = reader.nextDouble(); seen |= 2; break;
+                    case "numWalkersAhead": numWalkersAhead = reader.nextInt(); seen |= 4; break;
+                    case "numWalkersBehind": numWalkersBehind = reader.nextInt(); seen |= 8; break;
+                    case "numWalkersEnded": numWalkersEnded = reader.nextInt(); seen |= 16; break;
+                    case "walkersAhead": walkersAhead = readWalkers(reader); seen |= 32; break;
+                    case "walkersBehind": walkersBehind = readWalkers(reader); seen |= 64; break;
+                    case "raceState": raceState = reader.nextInt(); break;
+                    case "latitude": latitude = reader.nextDouble(); break;
+                    case "longitude": longitude = reader.nextDouble(); break;
+                    case "updated_at": updatedAt = parseDate(reader.nextString()); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            if (seen != 127) {
+                throw new JSONException("Scoreboard: missing some entries");
+            }
+            return new Scoreboard(distance, speed, raceState, latitude, longitude, updatedAt,
+                    numWalkersAhead, numWalkersBehind, numWalkersEnded, walkersAhead, walkersBehind);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException | ParseException e) {
+            throw new JSONException("Scoreboard: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads race metadata object.
+     */
+    private RaceInfo readRaceInfo(JsonReader reader) throws IOException, ParseException {
+        int id = 0;
+        String nameCS = "";
+        String nameEN = "";
+        String startTime = "";
+        String finishTime = "";
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (skipNull(reader)) {
+                continue;
+            }
+            switch (name) {
+                case "id": id = reader.nextInt(); break;
+                case "name_cs": nameCS = reader.nextString(); break;
+                case "name_en": nameEN = reader.nextString(); break;
+                case "start_time": startTime = reader.nextString(); break;
+                case "finish_time": finishTime = reader.nextString(); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        return new RaceInfo(id, nameCS, nameEN, parseDate(startTime), parseDate(finishTime));
+    }
+
+    /**
+     * Reads race route array, sorted by check ID.
+     */
+    private static Checkpoint[] readCheckpoints(JsonReader reader) throws IOException {
+        List<Checkpoint> checkpoints = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            int id = 0;
+            int meters = 0;
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (skipNull(reader)) {
+                    continue;
+                }
+                switch (name) {
+                    case "checkid": id = reader.nextInt(); break;
+                    case "meters": meters = reader.nextInt(); break;
+                    case "latitude": latitude = reader.nextDouble(); break;
+                    case "longitude": longitude = reader.nextDouble(); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            checkpoints.add(new Checkpoint(id, meters, latitude, longitude));
+        }
+        reader.endArray();
+
+        Checkpoint[] result = checkpoints.toArray(new Checkpoint[checkpoints.size()]);
+        Arrays.sort(result, new Comparator<Checkpoint>() {
+            @Override
+            public int compare(Checkpoint lhs, Checkpoint rhs) {
+                return lhs.id - rhs.id;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads array of walkers.
+     */
+    private Walker[] readWalkers(JsonReader reader) throws IOException, ParseException {
+        List<Walker> walkers = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = "";
+            int distance = 0;
+            double speed = Double.NaN;
+            int raceState = 0;
+            double latitude = 0;
+            double longitude = 0;
+            Date updatedAt = null;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (skipNull(reader)) {
+                    continue;
+                }
+                switch (field) {
+                    case "name": name = reader.nextString(); break;
+                    case "distance": distance = reader.nextInt(); break;
+                    case "speed": speed = reader.nextDouble(); break;
+                    case "raceState": raceState = reader.nextInt(); break;
+                    case "latitude": latitude = reader.nextDouble(); break;
+                    case "longitude": longitude = reader.nextDouble(); break;
+                    case "updated_at": updatedAt = parseDate(reader.nextString()); break;
+                    default: reader.skipValue();
+                }
+            }
+            reader.endObject();
+
+            walkers.add(new Walker(name, distance, speed, raceState, latitude, longitude, updatedAt));
+        }
+        reader.endArray();
+        return walkers.toArray(new Walker[walkers.size()]);
+    }
+
+    /**
+     * Skips null value.
+     * @return true if value was null
+     */
+    private static boolean skipNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return true;
+        }
+        return false;
+    }
+
+    private static Date parseDate(String s) throws ParseException {
+        return new Date(DateCodec.parseDownload(s));
+    }
+}
@@ -0,0 +1,78 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import java.util.Date;
+
+import cz.machalik.bcthesis.dencesty.model.WalkersModel.Walker;
+
+/**
+ * Race scoreboard as received from a server: current user's progress and walkers
+ * around him.
+ *
+ * @author Lukáš Machalík
+ */
+public class Scoreboard {
+
+    /**
+     * User's elapsed distance in meters.
+     */
+    public final int distance;
+    /**
+     * User's average speed in km/h.
+     */
+    public final double avgSpeed;
+    /**
+     * User's state in race, see {@link cz.machalik.bcthesis.dencesty.model.WalkersModel.RaceState}.
+     */
+    public final int raceState;
+    /**
+     * Latitude coordinate of user's last known location.
+     */
+    public final double latitude;
+    /**
+     * Longitude coordinate of user's last known location.
+     */
+    public final double longitude;
+    /**
+     * Last time user's progress was updated, may be null.
+     */
+    public final Date updatedAt;
+    /**
+     * Total number of walkers ahead user.
+     */
+    public final int numWalkersAhead;
+    /**
+     * Total number of walkers behind user.
+     */
+    public final int numWalkersBehind;
+    /**
+     * Total number of walkers with ended race.
+     */
+    public final int numWalkersEnded;
+    /**
+     * Nearest walkers ahead user.
+     */
+    public final Walker[] walkersAhead;
+    /**
+     * Nearest walkers behind user.
+     */
+    public final Walker[] walkersBehind;
+
+    /**
+     * Creates scoreboard.
+     */
+    public Scoreboard(int distance, double avgSpeed, int raceState, double latitude, double longitude,
+                      Date updatedAt, int numWalkersAhead, int numWalkersBehind, int numWalkersEnded,
+                      Walker[] walkersAhead, Walker[] walkersBehind) {
+        this.distance = distance;
+        this.avgSpeed = avgSpeed;
+        this.raceState = raceState;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.updatedAt = updatedAt;
+        this.numWalkersAhead = numWalkersAhead;
+        this.numWalkersBehind = numWalkersBehind;
+        this.numWalkersEnded = numWalkersEnded;
+        this.walkersAhead = walkersAhead;
+        this.walkersBehind = walkersBehind;
+    }
+}
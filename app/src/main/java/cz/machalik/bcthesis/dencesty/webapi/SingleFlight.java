@@ -0,0 +1,121 @@
+package cz.machalik.bcthesis.dencesty.webapi;
+
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Deduplicates identical synchronous requests. Concurrent requests with the same URL share
+ * one network call and all of them receive its result. Successful result is reused by repeated
+ * requests for a short freshness window, failure is never reused.
+ *
+ * @param <T> type of parsed response
+ *
+ * @author Lukáš Machalík
+ */
+final class SingleFlight<T> {
+
+    private final long freshnessMillis;
+
+    /**
+     * Calls in flight and fresh results, by request URL. Guarded by this.
+     */
+    private final Map<String, Call<T>> calls = new HashMap<>();
+
+    /**
+     * Creates single flight layer.
+     * @param freshnessMillis how long a successful result is reused
+     */
+    SingleFlight(long freshnessMillis) {
+        this.freshnessMillis = freshnessMillis;
+    }
+
+    /**
+     * Performs request, or joins identical request in flight, or returns its fresh result.
+     * Never call it from the main thread.
+     * @param request request to perform
+     * @return parsed response, or null if request failed
+     */
+    T execute(Request<T> request) {
+        String key = request.getUrl();
+        Call<T> call;
+        boolean isOwner = false;
+
+        synchronized (this) {
+            call = calls.get(key);
+            if (call == null || (call.isDone() && !call.isFresh(freshnessMillis))) {
+                removeStaleCalls();
+                call = new Call<>();
+                calls.put(key, call);
+                isOwner = true;
+            }
+        }
+
+        if (!isOwner) {
+            request.getMetrics().recordSkipped();
+            return call.await();
+        }
+
+        T result = null;
+        try {
+            result = RequestEngine.get().execute(request);
+        } finally {
+            synchronized (this) {
+                if (result == null) {
+                    calls.remove(key);
+                }
+            }
+            call.complete(result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes results which are not fresh anymore.
+     */
+    private void removeStaleCalls() {
+        Iterator<Call<T>> iterator = calls.values().iterator();
+        while (iterator.hasNext()) {
+            Call<T> call = iterator.next();
+            if (call.isDone() && !call.isFresh(freshnessMillis)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Network call shared by identical requests.
+     */
+    private static class Call<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile T result;
+        private volatile long completedAt;
+
+        void complete(T result) {
+            this.result = result;
+            this.completedAt = SystemClock.elapsedRealtime();
+            done.countDown();
+        }
+
+        boolean isDone() {
+            return done.getCount() == 0;
+        }
+
+        boolean isFresh(long freshnessMillis) {
+            return SystemClock.elapsedRealtime() - completedAt < freshnessMillis;
+        }
+
+        T await() {
+            try {
+                done.await();
+                return result;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+    }
+}
@@ -1,24 +1,25 @@
 package cz.machalik.bcthesis.dencesty.webapi;
 
+import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.BatteryManager;
+import android.preference.PreferenceManager;
 import android.util.Log;
 
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
+import cz.machalik.bcthesis.dencesty.events.EventBatch;
 import cz.machalik.bcthesis.dencesty.model.User;
 
 /**
@@ -36,28 +37,72 @@ public class WebAPI {
     //public static final String URL_WEBSERVER = "http://machalik.kolej.mff.cuni.cz:3000";
     public static final String URL_WEBSERVER = "https://www.dencesty.cz"; // must be with 'www.' !
 
-    // Specific handler addresses:
-    private static final String URL_LOGINHANDLER = URL_WEBSERVER + "/api/login.json";
-    private static final String URL_EVENTHANDLER = URL_WEBSERVER + "/api/push_events.json";
-    private static final String URL_RACESLIST = URL_WEBSERVER + "/api/races.json";
-    private static final String URL_RACEDATA = URL_WEBSERVER + "/api/race_data/%d.json?walker_id=%d";
-    private static final String URL_WALKERSLIST = URL_WEBSERVER + "/api/scoreboard/%d.json?walker_id=%d";
+    // Specific handler paths:
+    private static final String PATH_LOGINHANDLER = "/api/login.json";
+    private static final String PATH_EVENTHANDLER = "/api/push_events.json";
+    private static final String PATH_EVENTHANDLER_COMPACT = "/api/push_events_compact.json";
+    private static final String PATH_RACESLIST = "/api/races.json";
+    private static final String PATH_RACEDATA = "/api/race_data/%d.json?walker_id=%d";
+    private static final String PATH_WALKERSLIST = "/api/scoreboard/%d.json?walker_id=%d";
 
     /**
-     * DateFormat for parsing outgoing Date to String.
+     * How long a downloaded scoreboard is reused by repeated requests (in millis).
      */
-    public static final DateFormat DATE_FORMAT_UPLOAD = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
+    public static final long SCOREBOARD_FRESHNESS_IN_MILLISECONDS = 5 * 1000;
 
     /**
-     * DateFormat for parsing incoming String to Date.
+     * How long a rejected Events upload format (compact format, gzip compressed body)
+     * is not tried again (in millis). Rejection is remembered across app restarts.
      */
-    public static final DateFormat DATE_FORMAT_DOWNLOAD = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    public static final long REJECTED_FORMAT_RETRY_IN_MILLISECONDS = 24 * 60 * 60 * 1000;
+
+    private static final String SHAREDPREFERENCES_GZIP_REJECTED_KEY = "cz.machalik.bcthesis.dencesty.WebAPI.gzipRejectedTime";
+    private static final String SHAREDPREFERENCES_COMPACT_REJECTED_KEY = "cz.machalik.bcthesis.dencesty.WebAPI.compactRejectedTime";
+
+    /**
+     * Web server address all requests are sent to. It is {@link #URL_WEBSERVER},
+     * only instrumentation tests replace it with address of a local server.
+     */
+    private static volatile String serverUrl = URL_WEBSERVER;
+
+    /**
+     * Persists rejected Events upload formats, null until {@link #init(Context)}.
+     */
+    private static SharedPreferences sharedPreferences;
+
+    /**
+     * Wall-clock time when a server rejected gzip compressed Events upload (HTTP 415),
+     * or 0. Plain JSON is sent for {@link #REJECTED_FORMAT_RETRY_IN_MILLISECONDS} since then.
+     */
+    private static volatile long gzipRequestBodyRejectedTime = 0;
+
+    /**
+     * Wall-clock time when a server rejected Events upload in compact format (HTTP 404 or 415),
+     * or 0. JSON array of Events is sent for {@link #REJECTED_FORMAT_RETRY_IN_MILLISECONDS} since then.
+     */
+    private static volatile long compactEventsRejectedTime = 0;
+
+    /**
+     * Failures of Events upload, for backoff between upload attempts.
+     */
+    private static final EndpointHealth eventHandlerHealth = new EndpointHealth();
+
+    /**
+     * Shares one scoreboard download between screens refreshing it at the same time.
+     */
+    private static final SingleFlight<Scoreboard> walkersListFlight = new SingleFlight<>(SCOREBOARD_FRESHNESS_IN_MILLISECONDS);
 
     /**
-     * Server is responding in UTC timezone.
+     * Initializes shared HTTP client. Call it once at app start.
+     * @param context any context, only application context is held
      */
-    static {
-        DATE_FORMAT_DOWNLOAD.setTimeZone(TimeZone.getTimeZone("UTC"));
+    public static void init(Context context) {
+        HttpClient.init(context);
+        ResponseCache.init(context);
+
+        sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+        gzipRequestBodyRejectedTime = sharedPreferences.getLong(SHAREDPREFERENCES_GZIP_REJECTED_KEY, 0);
+        compactEventsRejectedTime = sharedPreferences.getLong(SHAREDPREFERENCES_COMPACT_REJECTED_KEY, 0);
     }
 
     /**
@@ -67,265 +112,140 @@ public class WebAPI {
      * @return response data (user's name, surname, id, ...)
      */
     public static JSONObject synchronousLoginHandlerRequest(String email, String password) {
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            URL url = new URL(URL_LOGINHANDLER);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
-            urlConnection.setConnectTimeout(10 * 1000); // in millis
-            urlConnection.setReadTimeout(10 * 1000); // in millis
-            urlConnection.connect();
-
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), "US-ASCII"));
-            bw.write(String.format("&email=%s&password=%s", email, password));
-            bw.flush();
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 200) {
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line+"\n");
-                }
-                br.close();
-                String jsonString = sb.toString();
-
-                jsonResponse = new JSONObject(jsonString);
-
-            } else {
-                String message = "Login handler: Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
-                //Log.e(TAG, message);
-                // TODO: Create error event
-            }
-
-        } catch (MalformedURLException e) {
-            String message = "Login handler: MalformedURLException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (IOException e) {
-            String message = "Login handler: IOException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            //e.printStackTrace();
-        } catch (JSONException e) {
-            String message = "Login handler: JSONException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-        }
-
-        return jsonResponse;
+        return RequestEngine.get().execute(loginHandlerRequest(email, password));
     }
 
     /**
-     * Synchronous Events upload request to a server.
-     * @param eventsAsJson Events as JSON array.
+     * Synchronous Events upload request to a server. Events are sent in compact format
+     * and request body is compressed with gzip, unless a server rejected any of them before.
+     * @param events chunk of Events, it is streamed to a request body.
      * @return response data (saved Event IDs)
      */
-    public static JSONObject synchronousEventHandlerRequest(JSONArray eventsAsJson) {
+    public static JSONObject synchronousEventHandlerRequest(EventBatch events) {
         if (!User.get().isLogged()) {
             //Log.e(TAG, "User is not logged to do synchronousEventHandlerRequest!");
             return null;
         }
 
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            URL url = new URL(URL_EVENTHANDLER);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoInput(true);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestProperty("Content-Type", "application/json");
-            urlConnection.setConnectTimeout(30 * 1000); // in millis
-            urlConnection.setReadTimeout(30 * 1000); // in millis
-            urlConnection.connect();
-
-            BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(urlConnection.getOutputStream(), "US-ASCII"));
-            bw.write(eventsAsJson.toString());
-            bw.flush();
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 200) {
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line+"\n");
-                }
-                br.close();
-                String jsonString = sb.toString();
+        if (!eventHandlerHealth.isAttemptAllowed()) {
+            RequestMetrics.EVENTS.recordSkipped();
+            Log.i(TAG, "Event handler: Upload skipped, retry in " + eventHandlerHealth.getRetryDelay() + " ms");
+            return null;
+        }
 
-                jsonResponse = new JSONObject(jsonString);
+        JSONObject jsonResponse = null;
+        for (int attempt = 0; attempt < 3 && jsonResponse == null; attempt++) {
+            boolean gzip = isFormatAllowed(gzipRequestBodyRejectedTime);
+            boolean compact = isFormatAllowed(compactEventsRejectedTime);
+            jsonResponse = RequestEngine.get().execute(eventHandlerRequest(events, gzip, compact));
 
-            } else {
-                String message = "Event handler: Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
-                //Log.e(TAG, message);
-                // TODO: Create error event
+            if (gzip == isFormatAllowed(gzipRequestBodyRejectedTime) && compact == isFormatAllowed(compactEventsRejectedTime)) {
+                break; // nothing was rejected, do not repeat
             }
+            // Server rejected compact format or compressed body, repeat without it
+        }
 
-        } catch (MalformedURLException e) {
-            String message = "Event handler: MalformedURLException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (IOException e) {
-            String message = "Event handler: IOException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            //e.printStackTrace();
-        } catch (JSONException e) {
-            String message = "Event handler: JSONException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+        if (jsonResponse != null) {
+            eventHandlerHealth.recordSuccess();
+        } else {
+            eventHandlerHealth.recordFailure();
         }
 
         return jsonResponse;
     }
 
     /**
-     * Synchronous scoreboard download request to a server.
+     * Returns true if Events upload format was not rejected by a server, or it was rejected
+     * more than {@link #REJECTED_FORMAT_RETRY_IN_MILLISECONDS} ago (or clock was set back).
+     * @param rejectedTime wall-clock time of rejection, or 0
+     */
+    private static boolean isFormatAllowed(long rejectedTime) {
+        if (rejectedTime == 0) {
+            return true;
+        }
+        long elapsed = System.currentTimeMillis() - rejectedTime;
+        return elapsed < 0 || elapsed >= REJECTED_FORMAT_RETRY_IN_MILLISECONDS;
+    }
+
+    /**
+     * Remembers rejected Events upload format, also for the next app starts.
+     * @param key SharedPreferences key of the format
+     * @return rejection time
+     */
+    private static long rejectFormat(String key) {
+        long now = System.currentTimeMillis();
+        SharedPreferences preferences = sharedPreferences;
+        if (preferences != null) {
+            preferences.edit().putLong(key, now).apply();
+        }
+        return now;
+    }
+
+    /**
+     * Returns time remaining to the next allowed Events upload attempt.
+     * @return delay in millis, or -1 if upload waits for network connectivity
+     */
+    public static long getEventUploadRetryDelay() {
+        return eventHandlerHealth.getRetryDelay();
+    }
+
+    /**
+     * Called on network connectivity change, see {@link EndpointHealth#onConnectivityChanged(boolean)}.
+     * @param isConnected true if some network is connected
+     */
+    public static void onConnectivityChanged(boolean isConnected) {
+        eventHandlerHealth.onConnectivityChanged(isConnected);
+    }
+
+    /**
+     * Synchronous scoreboard download request to a server. Concurrent requests for the same
+     * race and walker share one download, its result is reused for
+     * {@link #SCOREBOARD_FRESHNESS_IN_MILLISECONDS}.
      * @param raceId current Race ID
      * @param walkerId logged user's ID
      * @return response data (walkers ahead, walkers behind, ...)
      */
-    public static JSONObject synchronousWalkersListRequest(int raceId, int walkerId) {
+    public static Scoreboard synchronousWalkersListRequest(int raceId, int walkerId) {
         if (!User.get().isLogged()) {
             //Log.e(TAG, "User is not logged to do synchronousWalkersListRequest!");
             return null;
         }
 
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            URL url = new URL(String.format(URL_WALKERSLIST, raceId, walkerId));
-            urlConnection = (HttpURLConnection) url.openConnection();
-            //urlConnection.setDoInput(false);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestProperty("Content-Type", "application/json");
-            urlConnection.setConnectTimeout(10 * 1000); // in millis
-            urlConnection.setReadTimeout(10 * 1000); // in millis
-            urlConnection.connect();
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 200) {
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line+"\n");
-                }
-                br.close();
-                String jsonString = sb.toString();
-
-                jsonResponse = new JSONObject(jsonString);
-
-            } else {
-                String message = "Walkers list update: Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
-                //Log.e(TAG, message);
-                // TODO: Create error event
+        String url = serverUrl + String.format(PATH_WALKERSLIST, raceId, walkerId);
+        return walkersListFlight.execute(new Request<Scoreboard>("Walkers list update", url, 10 * 1000, RequestMetrics.WALKERS_LIST) {
+            @Override
+            protected Scoreboard parse(Reader body) throws IOException, JSONException {
+                return new ResponseDecoder().decodeScoreboard(body);
             }
-
-        } catch (MalformedURLException e) {
-            String message = "Walkers list update: MalformedURLException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (IOException e) {
-            String message = "Walkers list update: IOException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            //e.printStackTrace();
-        } catch (JSONException e) {
-            String message = "Walkers list update: JSONException: " + e.getLocalizedMessage();
-            //Log.e(TAG, message);
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-        }
-
-        return jsonResponse;
+        });
     }
 
     /**
      * Synchronous races list download request to a server.
      * @return response data (list of all available races)
      */
-    public static JSONArray synchronousRacesListUpdateRequest() {
+    public static List<RaceInfo> synchronousRacesListUpdateRequest() {
         if (!User.get().isLogged()) {
             Log.e(TAG, "User is not logged to do synchronousRacesListUpdateRequest!");
             return null;
         }
 
-        JSONArray jsonResponse = null;
-        HttpURLConnection urlConnection = null;
-        try {
-            URL url = new URL(URL_RACESLIST);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            //urlConnection.setDoInput(false);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestProperty("Content-Type", "application/json");
-            urlConnection.setConnectTimeout(10 * 1000); // in millis
-            urlConnection.setReadTimeout(10 * 1000); // in millis
-            urlConnection.connect();
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 200) {
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line+"\n");
-                }
-                br.close();
-                String jsonString = sb.toString();
-
-                jsonResponse = new JSONArray(jsonString);
-
-            } else {
-                String message = "Races list update: Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
-                Log.e(TAG, message);;
-                // TODO: Create error event
-            }
+        return RequestEngine.get().execute(racesListUpdateRequest());
+    }
 
-        } catch (MalformedURLException e) {
-            String message = "Races list update: MalformedURLException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (IOException e) {
-            String message = "Races list update: IOException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (JSONException e) {
-            String message = "Races list update: JSONException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
+    /**
+     * Asynchronous races list download request to a server.
+     * @param callback called on the main thread with response data (list of all available races),
+     *                 or null if request failed
+     * @return pending request, cancel it to abort request, or null if user is not logged in
+     */
+    public static RequestFuture<List<RaceInfo>> racesListUpdateRequest(RequestEngine.Callback<List<RaceInfo>> callback) {
+        if (!User.get().isLogged()) {
+            Log.e(TAG, "User is not logged to do racesListUpdateRequest!");
+            return null;
         }
 
-        return jsonResponse;
+        return RequestEngine.get().submit(racesListUpdateRequest(), callback);
     }
 
     /**
@@ -334,65 +254,181 @@ public class WebAPI {
      * @param walkerId logged user's ID
      * @return response data (user's progress in race, checkpoints, race start time, ...)
      */
-    public static JSONObject synchronousRaceDataRequest(int raceId, int walkerId) {
+    public static RaceData synchronousRaceDataRequest(int raceId, int walkerId) {
         if (!User.get().isLogged()) {
             Log.e(TAG, "User is not logged to do synchronousRaceDataRequest!");
             return null;
         }
 
-        JSONObject jsonResponse = null;
-        HttpURLConnection urlConnection = null;
+        return RequestEngine.get().execute(raceDataRequest(raceId, walkerId));
+    }
+
+    /**
+     * Returns races list saved by the last successful races list request, without any request
+     * to a server. Call it from background thread.
+     * @return response data (list of all available races), or null if there is none cached
+     */
+    public static List<RaceInfo> getCachedRacesList() {
+        return readCached(racesListUpdateRequest());
+    }
+
+    /**
+     * Returns race data saved by the last successful race data request, without any request
+     * to a server. Call it from background thread.
+     * @param raceId Race ID
+     * @param walkerId logged user's ID
+     * @return response data (user's progress in race, checkpoints, race start time, ...),
+     *         or null if there is none cached
+     */
+    public static RaceData getCachedRaceData(int raceId, int walkerId) {
+        return readCached(raceDataRequest(raceId, walkerId));
+    }
+
+    /**
+     * Decodes cached response of given request.
+     * @return decoded response, or null if there is none cached
+     */
+    private static <T> T readCached(Request<T> request) {
+        ResponseCache.Entry cached = ResponseCache.get(request.getCacheKey());
+        if (cached == null) {
+            return null;
+        }
+
         try {
-            URL url = new URL(String.format(URL_RACEDATA, raceId, walkerId));
-            urlConnection = (HttpURLConnection) url.openConnection();
-            //urlConnection.setDoInput(false);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestMethod("POST");
-            urlConnection.setUseCaches(false);
-            urlConnection.setRequestProperty("Content-Type", "application/json");
-            urlConnection.setConnectTimeout(10 * 1000); // in millis
-            urlConnection.setReadTimeout(10 * 1000); // in millis
-            urlConnection.connect();
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == 200) {
-
-                BufferedReader br = new BufferedReader(new InputStreamReader(urlConnection.getInputStream()));
-                StringBuilder sb = new StringBuilder();
-                String line;
-                while ((line = br.readLine()) != null) {
-                    sb.append(line+"\n");
+            Reader reader = new InputStreamReader(cached.openBody(), "UTF-8");
+            try {
+                return request.parse(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Cached " + request.getName() + ": IOException: " + e.getLocalizedMessage());
+        } catch (JSONException e) {
+            Log.e(TAG, "Cached " + request.getName() + ": JSONException: " + e.getLocalizedMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Creates login request.
+     */
+    private static Request<JSONObject> loginHandlerRequest(final String email, final String password) {
+        return new Request<JSONObject>("Login handler", serverUrl + PATH_LOGINHANDLER, 10 * 1000, RequestMetrics.LOGIN) {
+            @Override
+            protected void configure(HttpURLConnection urlConnection) {
+                urlConnection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            }
+
+            @Override
+            protected boolean hasBody() {
+                return true;
+            }
+
+            @Override
+            protected void writeBody(OutputStream out) throws IOException {
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "US-ASCII"));
+                bw.write(String.format("&email=%s&password=%s", email, password));
+                bw.close();
+            }
+
+            @Override
+            protected JSONObject parse(Reader body) throws IOException, JSONException {
+                return new JSONObject(readFully(body));
+            }
+        };
+    }
+
+    /**
+     * Creates Events upload request.
+     * @param events chunk of Events
+     * @param gzip true to compress request body with gzip
+     * @param compact true to send Events in compact format to compact handler
+     */
+    private static Request<JSONObject> eventHandlerRequest(final EventBatch events, final boolean gzip, final boolean compact) {
+        String url = serverUrl + (compact ? PATH_EVENTHANDLER_COMPACT : PATH_EVENTHANDLER);
+        return new Request<JSONObject>("Event handler", url, 30 * 1000, RequestMetrics.EVENTS) {
+            @Override
+            protected void configure(HttpURLConnection urlConnection) {
+                super.configure(urlConnection);
+                // Body is sent while it is written, HttpURLConnection would buffer it whole otherwise
+                urlConnection.setChunkedStreamingMode(0);
+                if (gzip) {
+                    urlConnection.setRequestProperty("Content-Encoding", "gzip");
                 }
-                br.close();
-                String jsonString = sb.toString();
+            }
 
-                jsonResponse = new JSONObject(jsonString);
+            @Override
+            protected boolean hasBody() {
+                return true;
+            }
 
-            } else {
-                String message = "Race data request: Wrong response code " + responseCode + ": " + urlConnection.getResponseMessage();
-                Log.e(TAG, message);
-                // TODO: Create error event
+            @Override
+            protected void writeBody(OutputStream out) throws IOException {
+                if (gzip) {
+                    out = new GZIPOutputStream(out);
+                }
+                BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+                if (compact) {
+                    events.writeCompactTo(bw);
+                } else {
+                    events.writeTo(bw);
+                }
+                bw.close(); // finishes gzip stream
             }
 
-        } catch (MalformedURLException e) {
-            String message = "Race data request: MalformedURLException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (IOException e) {
-            String message = "Race data request: IOException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } catch (JSONException e) {
-            String message = "Race data request: JSONException: " + e.getLocalizedMessage();
-            Log.e(TAG, message);
-            e.printStackTrace();
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            @Override
+            protected JSONObject parse(Reader body) throws IOException, JSONException {
+                return new JSONObject(readFully(body));
             }
-        }
 
-        return jsonResponse;
+            @Override
+            protected void onErrorResponse(int responseCode) {
+                if (compact && (responseCode == 404 || responseCode == 415)) {
+                    Log.w(TAG, "Event handler: Compact format is not supported, sending JSON array from now on");
+                    compactEventsRejectedTime = rejectFormat(SHAREDPREFERENCES_COMPACT_REJECTED_KEY);
+                } else if (responseCode == 415 && gzip) {
+                    Log.w(TAG, "Event handler: Compressed request body is not supported, sending plain JSON from now on");
+                    gzipRequestBodyRejectedTime = rejectFormat(SHAREDPREFERENCES_GZIP_REJECTED_KEY);
+                }
+            }
+        };
+    }
+
+    /**
+     * Creates races list download request.
+     */
+    private static Request<List<RaceInfo>> racesListUpdateRequest() {
+        return new Request<List<RaceInfo>>("Races list update", serverUrl + PATH_RACESLIST, 10 * 1000, RequestMetrics.RACES_LIST) {
+            @Override
+            protected String getCacheKey() {
+                return getUrl();
+            }
+
+            @Override
+            protected List<RaceInfo> parse(Reader body) throws IOException, JSONException {
+                return new ResponseDecoder().decodeRacesList(body);
+            }
+        };
+    }
+
+    /**
+     * Creates race data download request.
+     * @param raceId Race ID
+     * @param walkerId logged user's ID
+     */
+    private static Request<RaceData> raceDataRequest(int raceId, int walkerId) {
+        String url = serverUrl + String.format(PATH_RACEDATA, raceId, walkerId);
+        return new Request<RaceData>("Race data request", url, 10 * 1000, RequestMetrics.RACE_DATA) {
+            @Override
+            protected String getCacheKey() {
+                return getUrl();
+            }
+
+            @Override
+            protected RaceData parse(Reader body) throws IOException, JSONException {
+                return new ResponseDecoder().decodeRaceData(body);
+            }
+        };
     }
 
     /**